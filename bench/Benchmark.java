@@ -0,0 +1,287 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Benchmarks the load, embed, extract and save stages and the full encode and decode pipelines on synthetic Bitmap Images. Each case is warmed up, then
+ * timed over several iterations, and reported as MB/s along with the bytes allocated per operation. Throughput counts payload bytes for embed and extract
+ * and carrier bytes for every other stage. The scatter stage embeds through a {@link ScatteredCarrier}.
+ *
+ * Build and run from the repository root with:
+ *
+ * <pre>
+ * javac -d out src/*.java bench/*.java
+ * java -cp out Benchmark [stage...]
+ * </pre>
+ *
+ * where stage is any of load, save, embed, extract, scatter, encode and decode, all stages being run by default.
+ */
+public class Benchmark {
+
+	/**
+	 * Synthetic image sizes, width and height
+	 */
+	private static final int[][] RESOLUTIONS = { { 640, 480 }, { 1920, 1080 }, { 4000, 3000 } };
+
+	/**
+	 * Payload sizes in bytes, payloads that do not fit a carrier at a given maxBits are skipped
+	 */
+	private static final int[] PAYLOADS = { 1024, 64 * 1024, 1024 * 1024 };
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASURE_ITERATIONS = 10;
+
+	private static final String[] STAGES = { "load", "save", "embed", "extract", "scatter", "encode", "decode" };
+
+	/**
+	 * Operation being benchmarked
+	 */
+	private interface Operation {
+		void run() throws Exception;
+	}
+
+	public static void main(String args[]) throws Exception {
+		String[] stages = args.length > 0 ? args : STAGES;
+		File dir = createTempDir();
+		try {
+			System.out.println(String.format("%-8s %-10s %7s %9s %10s %12s", "stage", "image", "maxBits", "payload", "MB/s", "alloc B/op"));
+			for (int[] resolution : RESOLUTIONS) {
+				File carrier = new File(dir, resolution[0] + "x" + resolution[1] + ".bmp");
+				writeSyntheticBitmap(carrier, resolution[0], resolution[1]);
+				for (String stage : stages) {
+					runStage(stage, carrier, dir, resolution);
+				}
+			}
+		} finally {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+		return;
+	}
+
+	/**
+	 * Runs every case of a stage against one carrier
+	 */
+	private static void runStage(String stage, final File carrier, File dir, int[] resolution) throws Exception {
+		final String image = resolution[0] + "x" + resolution[1];
+		final long carrierBytes = (long) resolution[0] * resolution[1] * 3;
+		final BMPLoader loader = new BMPLoader();
+		loader.setFile(carrier.getPath());
+		final String output = new File(dir, "out.bmp").getPath();
+
+		if (stage.equals("load")) {
+			report(stage, image, 0, 0, carrierBytes, new Operation() {
+				@Override
+				public void run() throws Exception {
+					loader.loadFile();
+				}
+			});
+			return;
+		}
+		if (stage.equals("save")) {
+			report(stage, image, 0, 0, carrierBytes, new Operation() {
+				@Override
+				public void run() throws Exception {
+					loader.recalcBuffer();
+					loader.saveToFile(output);
+				}
+			});
+			return;
+		}
+
+		// Derived once, deriving from a password is deliberately slow
+		KeyedPermutation permutation = stage.equals("scatter") ? new KeyedPermutation("benchmark".toCharArray(), carrierBytes / 3) : null;
+		CapacityPlanner planner = new CapacityPlanner(resolution[0], resolution[1]);
+		for (int maxBits = 1; maxBits <= 8; maxBits++) {
+			final BinaryModifier bm = new BinaryModifier(maxBits);
+			for (final int size : PAYLOADS) {
+				if (!planner.fits(size, maxBits))
+					continue;
+				final byte[] payload = new byte[size];
+				new Random(size).nextBytes(payload);
+				final byte[] pixelData = loader.getPixelData();
+				final ByteArrayCarrier pixels = new ByteArrayCarrier(pixelData);
+				bm.encode(new ByteArrayInputStream(payload), size, pixels);
+
+				if (stage.equals("embed")) {
+					report(stage, image, maxBits, size, size, new Operation() {
+						@Override
+						public void run() throws Exception {
+							bm.encode(new ByteArrayInputStream(payload), size, pixels);
+						}
+					});
+				} else if (stage.equals("extract")) {
+					report(stage, image, maxBits, size, size, new Operation() {
+						@Override
+						public void run() throws Exception {
+							bm.decode(pixels, new NullOutputStream());
+						}
+					});
+				} else if (stage.equals("scatter")) {
+					final ScatteredCarrier scattered = new ScatteredCarrier(pixels, permutation);
+					report(stage, image, maxBits, size, size, new Operation() {
+						@Override
+						public void run() throws Exception {
+							bm.encode(new ByteArrayInputStream(payload), size, scattered);
+						}
+					});
+				} else if (stage.equals("encode")) {
+					// The same steps as Main.encode
+					report(stage, image, maxBits, size, carrierBytes, new Operation() {
+						@Override
+						public void run() throws Exception {
+							BMPLoader l = new BMPLoader();
+							l.setFile(carrier.getPath());
+							l.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
+							PixelChannelView pixels = new PixelChannelView(l);
+							bm.encode(new ByteArrayInputStream(payload), size, pixels, BinaryModifier.CODEC_NONE, BMPLoader.PIXEL_ORDER_ROWS);
+							pixels.flush();
+							l.saveToFile(output);
+						}
+					});
+				} else if (stage.equals("decode")) {
+					loader.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
+					byte[] rows = loader.getPixelData();
+					bm.encode(new ByteArrayInputStream(payload), size, new ByteArrayCarrier(rows), BinaryModifier.CODEC_NONE, BMPLoader.PIXEL_ORDER_ROWS);
+					loader.setPixelData(rows);
+					loader.setPixelOrder(BMPLoader.PIXEL_ORDER_COLUMNS);
+					loader.saveToFile(output);
+					// The same steps as Main.decode for an image encoded in row order
+					report(stage, image, maxBits, size, carrierBytes, new Operation() {
+						@Override
+						public void run() throws Exception {
+							BMPLoader l = new BMPLoader();
+							l.setFile(output);
+							l.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
+							bm.decode(new PixelChannelView(l), new NullOutputStream());
+						}
+					});
+				} else {
+					throw new IllegalArgumentException("Unknown stage " + stage);
+				}
+			}
+		}
+		return;
+	}
+
+	/**
+	 * Warms up and times an operation, then prints its throughput and allocation per operation
+	 *
+	 * @param bytes
+	 *            Bytes processed per operation, used for the MB/s figure
+	 */
+	private static void report(String stage, String image, int maxBits, int payload, long bytes, Operation op) throws Exception {
+		for (int x = 0; x < WARMUP_ITERATIONS; x++) {
+			op.run();
+		}
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int x = 0; x < MEASURE_ITERATIONS; x++) {
+			op.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		double mbPerSecond = (double) bytes * MEASURE_ITERATIONS / (1024.0 * 1024.0) / (elapsed / 1e9);
+		System.out.println(String.format("%-8s %-10s %7s %9s %10.1f %12d", stage, image, maxBits == 0 ? "-" : String.valueOf(maxBits), payload == 0 ? "-"
+				: String.valueOf(payload), mbPerSecond, allocated < 0 ? -1 : allocated / MEASURE_ITERATIONS));
+		return;
+	}
+
+	/**
+	 * Gets the bytes allocated so far by the current thread, or -1 if the JVM does not report it
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	/**
+	 * Writes an uncompressed 24-bit bottom-up Bitmap Image filled with random pixels
+	 */
+	private static void writeSyntheticBitmap(File file, int width, int height) throws IOException {
+		int rowStride = (width * 3 + 3) / 4 * 4;
+		int imageSize = rowStride * height;
+		byte[] header = new byte[BMPHeader.FILE_HEADER_SIZE + BMPHeader.INFO_HEADER_SIZE];
+		header[0] = 'B';
+		header[1] = 'M';
+		putInt(header, 2, header.length + imageSize);
+		putInt(header, 10, header.length);
+		putInt(header, 14, BMPHeader.INFO_HEADER_SIZE);
+		putInt(header, 18, width);
+		putInt(header, 22, height);
+		header[26] = 1;
+		header[28] = 24;
+		putInt(header, 34, imageSize);
+
+		Random random = new Random(width * 31 + height);
+		byte[] row = new byte[rowStride];
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			out.write(header);
+			for (int y = 0; y < height; y++) {
+				random.nextBytes(row);
+				for (int x = width * 3; x < rowStride; x++) {
+					row[x] = 0;
+				}
+				out.write(row);
+			}
+		} finally {
+			out.close();
+		}
+		return;
+	}
+
+	private static void putInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) value;
+		b[offset + 1] = (byte) (value >>> 8);
+		b[offset + 2] = (byte) (value >>> 16);
+		b[offset + 3] = (byte) (value >>> 24);
+	}
+
+	private static File createTempDir() throws IOException {
+		File dir = File.createTempFile("bmpbench", "");
+		if (!dir.delete() || !dir.mkdir())
+			throw new IOException("Could not create " + dir);
+		return dir;
+	}
+
+	/**
+	 * Discards everything written to it
+	 */
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
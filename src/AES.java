@@ -7,33 +7,51 @@
  * ----------------------------------------------------------------------------
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.InvalidParameterSpecException;
 import java.security.spec.KeySpec;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
- * A class to perform password-based AES encryption and decryption in CBC mode. 128, 192, and 256-bit encryption are supported, provided that the latter two are
- * permitted by the Java runtime's jurisdiction policy files. <br/>
- * The public interface for this class consists of the static methods {@link #encrypt} and {@link #decrypt}, which encrypt and decrypt arbitrary streams of
- * data, respectively.
+ * A class to perform password-based AES encryption and decryption in CBC or GCM mode. 128, 192, and 256-bit encryption are supported, provided that the latter
+ * two are permitted by the Java runtime's jurisdiction policy files. <br/>
+ * The public interface for this class consists of the static methods {@link #encrypt}, {@link #encryptGCM} and {@link #decrypt}, which encrypt and decrypt
+ * arbitrary streams of data, respectively. {@link #decrypt} accepts streams written by either encryption method.
  */
 public class AES {
 
@@ -46,8 +64,102 @@ public class AES {
 	private static final int AUTH_KEY_LENGTH = 32; // in bytes
 	private static final int ITERATIONS = 65536;
 
-	// Process input/output streams in chunks - arbitrary
-	private static final int BUFFER_SIZE = 1024;
+	// Authenticated AES specification for format version FORMAT_GCM - changing will break existing GCM streams!
+	private static final String GCM_CIPHER_SPEC = "AES/GCM/NoPadding";
+	private static final int FORMAT_GCM = 2; // first byte of a GCM stream, never a valid CBC key length byte (16, 24 or 32)
+	private static final int GCM_NONCE_LENGTH = 12; // in bytes
+	private static final int GCM_TAG_LENGTH = 128; // in bits
+
+	// Chunked AES-GCM container for format version FORMAT_CHUNKED - changing will break existing chunked streams!
+	private static final int FORMAT_CHUNKED = 3; // first byte of a chunked stream, never a valid CBC key length byte (16, 24 or 32)
+	private static final int CHUNKED_HEADER_LENGTH = 2 + SALT_LENGTH + 4; // format, key length, salt, chunk size
+	private static final int SEGMENT_HEADER_LENGTH = 8 + 4 + 1 + GCM_NONCE_LENGTH; // index, length, final flag, nonce
+	private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	// Process input/output streams in chunks - default, see setBufferSize
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static int bufferSize = BUFFER_SIZE;
+
+	/**
+	 * Sets the size of the chunks in which streams are read, encrypted or decrypted, and written
+	 * 
+	 * @param size
+	 *            chunk size in bytes
+	 */
+	public static void setBufferSize(int size) {
+		if (size < 16) {
+			throw new IllegalArgumentException("Buffer size must be at least one AES block: " + size);
+		}
+		bufferSize = size;
+	}
+
+	// Derived key cache, off unless enabled with setKeyCacheSize - least recently used keys are zeroized and evicted
+	private static int keyCacheSize = 0;
+	private static final Map<KeyCacheEntry, byte[]> keyCache = new LinkedHashMap<KeyCacheEntry, byte[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<KeyCacheEntry, byte[]> eldest) {
+			if (size() <= keyCacheSize) {
+				return false;
+			}
+			eldest.getKey().zeroize();
+			Arrays.fill(eldest.getValue(), (byte) 0);
+			return true;
+		}
+	};
+
+	/**
+	 * Enables caching of derived keys, so repeated encryption or decryption with the same password and salt only runs the key derivation once. Cached keys and
+	 * password hashes are zeroized when evicted or when the cache is cleared.
+	 * 
+	 * @param size
+	 *            maximum number of derived keys to keep, 0 disables the cache
+	 */
+	public static void setKeyCacheSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Key cache size must not be negative: " + size);
+		}
+		synchronized (keyCache) {
+			keyCacheSize = size;
+			trimKeyCache();
+		}
+	}
+
+	/**
+	 * Zeroizes and removes all cached keys
+	 */
+	public static void clearKeyCache() {
+		synchronized (keyCache) {
+			int size = keyCacheSize;
+			keyCacheSize = 0;
+			trimKeyCache();
+			keyCacheSize = size;
+		}
+	}
+
+	/**
+	 * Evicts least recently used keys until the cache fits its size, must hold the cache lock
+	 */
+	private static void trimKeyCache() {
+		Iterator<Map.Entry<KeyCacheEntry, byte[]>> entries = keyCache.entrySet().iterator();
+		while (keyCache.size() > keyCacheSize && entries.hasNext()) {
+			Map.Entry<KeyCacheEntry, byte[]> eldest = entries.next();
+			eldest.getKey().zeroize();
+			Arrays.fill(eldest.getValue(), (byte) 0);
+			entries.remove();
+		}
+	}
+
+	/**
+	 * Generates a salt to be shared by every stream of a batch encrypted with {@link #encrypt(int, char[], byte[], InputStream, OutputStream)}. Together with
+	 * the key cache this runs the key derivation once per batch rather than once per stream.
+	 * 
+	 * @return a new pseudorandom salt
+	 */
+	public static byte[] generateBatchSalt() {
+		return generateSalt(SALT_LENGTH);
+	}
 
 	/**
 	 * @return a new pseudorandom salt of the specified length
@@ -77,20 +189,38 @@ public class AES {
 		} catch (NoSuchAlgorithmException impossible) {
 			return null;
 		}
-		// derive a longer key, then split into AES key and authentication key
-		KeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, keyLength + AUTH_KEY_LENGTH * 8);
-		SecretKey tmp = null;
-		try {
-			tmp = factory.generateSecret(spec);
-		} catch (InvalidKeySpecException impossible) {
+		byte[] fullKey = null;
+		KeyCacheEntry cacheEntry = null;
+		synchronized (keyCache) {
+			if (keyCacheSize > 0) {
+				cacheEntry = new KeyCacheEntry(keyLength, password, salt);
+				fullKey = keyCache.get(cacheEntry);
+			}
+		}
+		if (fullKey == null) {
+			// derive a longer key, then split into AES key and authentication key
+			KeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, keyLength + AUTH_KEY_LENGTH * 8);
+			SecretKey tmp = null;
+			try {
+				tmp = factory.generateSecret(spec);
+			} catch (InvalidKeySpecException impossible) {
+			}
+			fullKey = tmp.getEncoded();
+			if (cacheEntry != null) {
+				synchronized (keyCache) {
+					keyCache.put(cacheEntry, fullKey.clone());
+				}
+			}
+		} else {
+			fullKey = fullKey.clone();
 		}
-		byte[] fullKey = tmp.getEncoded();
 		SecretKey authKey = new SecretKeySpec( // key for password
 				// authentication
 				Arrays.copyOfRange(fullKey, 0, AUTH_KEY_LENGTH), "AES");
 		SecretKey encKey = new SecretKeySpec(
 		// key for AES encryption
 				Arrays.copyOfRange(fullKey, AUTH_KEY_LENGTH, fullKey.length), "AES");
+		Arrays.fill(fullKey, (byte) 0);
 		return new Keys(encKey, authKey);
 	}
 
@@ -119,13 +249,40 @@ public class AES {
 	 */
 	public static void encrypt(int keyLength, char[] password, InputStream input, OutputStream output) throws InvalidKeyLengthException,
 			StrongEncryptionNotAvailableException, IOException {
+		encrypt(keyLength, password, generateSalt(SALT_LENGTH), input, output);
+	}
+
+	/**
+	 * Encrypts a stream of data like {@link #encrypt(int, char[], InputStream, OutputStream)}, using a given salt instead of a new one. Streams of a batch can
+	 * share a salt from {@link #generateBatchSalt}, each stream still gets its own IV.
+	 * 
+	 * @param keyLength
+	 *            key length to use for AES encryption (must be 128, 192, or 256)
+	 * @param password
+	 *            password to use for encryption
+	 * @param salt
+	 *            salt from which to derive the keys
+	 * @param input
+	 *            an arbitrary byte stream to encrypt
+	 * @param output
+	 *            stream to which encrypted data will be written
+	 * @throws AES.InvalidKeyLengthException
+	 *             if keyLength is not 128, 192, or 256
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *             if keyLength is 192 or 256, but the Java runtime's jurisdiction policy files do not allow 192- or 256-bit encryption
+	 * @throws IOException
+	 */
+	public static void encrypt(int keyLength, char[] password, byte[] salt, InputStream input, OutputStream output) throws InvalidKeyLengthException,
+			StrongEncryptionNotAvailableException, IOException {
 		// Check validity of key length
 		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
 			throw new InvalidKeyLengthException(keyLength);
 		}
+		if (salt.length != SALT_LENGTH) {
+			throw new IllegalArgumentException("Salt must be " + SALT_LENGTH + " bytes");
+		}
 
-		// generate salt and derive keys for authentication and encryption
-		byte[] salt = generateSalt(SALT_LENGTH);
+		// derive keys for authentication and encryption
 		Keys keys = keygen(keyLength, password, salt);
 
 		// initialize AES encryption
@@ -152,24 +309,284 @@ public class AES {
 		output.write(iv);
 
 		// read data from input into buffer, encrypt and write to output
-		byte[] buffer = new byte[BUFFER_SIZE];
-		int numRead;
-		byte[] encrypted = null;
-		while ((numRead = input.read(buffer)) > 0) {
-			encrypted = encrypt.update(buffer, 0, numRead);
-			if (encrypted != null) {
-				output.write(encrypted);
-			}
+		try {
+			transform(encrypt, input, output);
+		} catch (IllegalBlockSizeException | BadPaddingException impossible) {
 		}
-		try { // finish encryption - do final block
-			encrypted = encrypt.doFinal();
+	}
+
+	/**
+	 * Encrypts a stream of data with authenticated AES-GCM. The encrypted stream consists of a header followed by the AES-GCM data, whose authentication tag
+	 * covers the header as well. The header is broken down as follows:<br/>
+	 * <ul>
+	 * <li><b>format</b>: GCM stream format version (1 byte)</li>
+	 * <li><b>keyLength</b>: AES key length in bytes (valid for 16, 24, 32) (1 byte)</li>
+	 * <li><b>salt</b>: pseudorandom salt used to derive the key from password (64 bytes)</li>
+	 * <li><b>nonce</b>: pseudorandom GCM nonce (12 bytes)</li>
+	 * </ul>
+	 * No separate authentication key is stored, a wrong password is detected by the authentication tag failing to verify.<br/>
+	 * Decrypting a GCM stream holds the whole plaintext in memory until the tag has been verified, so it suits small payloads. Large streams should use
+	 * {@link #encryptChunked}, the format that scales, whose chunks are verified and released one at a time.
+	 * 
+	 * @param keyLength
+	 *            key length to use for AES encryption (must be 128, 192, or 256)
+	 * @param password
+	 *            password to use for encryption
+	 * @param input
+	 *            an arbitrary byte stream to encrypt
+	 * @param output
+	 *            stream to which encrypted data will be written
+	 * @throws AES.InvalidKeyLengthException
+	 *             if keyLength is not 128, 192, or 256
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *             if keyLength is 192 or 256, but the Java runtime's jurisdiction policy files do not allow 192- or 256-bit encryption
+	 * @throws IOException
+	 */
+	public static void encryptGCM(int keyLength, char[] password, InputStream input, OutputStream output) throws InvalidKeyLengthException,
+			StrongEncryptionNotAvailableException, IOException {
+		// Check validity of key length
+		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+			throw new InvalidKeyLengthException(keyLength);
+		}
+
+		byte[] salt = generateSalt(SALT_LENGTH);
+		Keys keys = keygen(keyLength, password, salt);
+		byte[] header = gcmHeader(keyLength, salt);
+		byte[] nonce = generateSalt(GCM_NONCE_LENGTH);
+
+		// initialize AES-GCM encryption, authenticating the header along with the data
+		Cipher encrypt = null;
+		try {
+			encrypt = Cipher.getInstance(GCM_CIPHER_SPEC);
+			encrypt.init(Cipher.ENCRYPT_MODE, keys.encryption, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException impossible) {
+		} catch (InvalidKeyException e) { // 192 or 256-bit AES not available
+			throw new StrongEncryptionNotAvailableException(keyLength);
+		}
+		encrypt.updateAAD(header);
+
+		output.write(header);
+		output.write(nonce);
+		try {
+			transform(encrypt, input, output);
 		} catch (IllegalBlockSizeException | BadPaddingException impossible) {
 		}
-		if (encrypted != null) {
-			output.write(encrypted);
+	}
+
+	/**
+	 * Encrypts a stream of data as independently authenticated AES-GCM segments of 1 MiB, using the common ForkJoinPool. See
+	 * {@link #encryptChunked(int, char[], InputStream, OutputStream, int, ExecutorService)}.
+	 */
+	public static void encryptChunked(int keyLength, char[] password, InputStream input, OutputStream output) throws InvalidKeyLengthException,
+			StrongEncryptionNotAvailableException, IOException {
+		encryptChunked(keyLength, password, input, output, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Encrypts a stream of data as a sequence of independently authenticated AES-GCM segments, which are encrypted in parallel. The stream consists of a
+	 * header followed by the segments. The header is broken down as follows:<br/>
+	 * <ul>
+	 * <li><b>format</b>: chunked stream format version (1 byte)</li>
+	 * <li><b>keyLength</b>: AES key length in bytes (valid for 16, 24, 32) (1 byte)</li>
+	 * <li><b>salt</b>: pseudorandom salt used to derive the key from password (64 bytes)</li>
+	 * <li><b>chunkSize</b>: plaintext bytes per segment, only the final segment may be shorter (4 bytes)</li>
+	 * </ul>
+	 * Each segment is broken down as follows:<br/>
+	 * <ul>
+	 * <li><b>index</b>: position of the segment in the stream, starting at 0 (8 bytes)</li>
+	 * <li><b>length</b>: plaintext bytes in the segment (4 bytes)</li>
+	 * <li><b>final</b>: 1 for the last segment of the stream, 0 otherwise (1 byte)</li>
+	 * <li><b>nonce</b>: pseudorandom GCM nonce of the segment (12 bytes)</li>
+	 * <li><b>data</b>: AES-GCM data and authentication tag (length + 16 bytes)</li>
+	 * </ul>
+	 * Every segment is authenticated together with the stream header and its own index, length and final flag, so segments cannot be reordered, dropped or
+	 * moved to another stream. All segments but the last have the same size, so any segment can be located and decrypted on its own with
+	 * {@link #decryptChunk}.
+	 * 
+	 * @param keyLength
+	 *            key length to use for AES encryption (must be 128, 192, or 256)
+	 * @param password
+	 *            password to use for encryption
+	 * @param input
+	 *            an arbitrary byte stream to encrypt
+	 * @param output
+	 *            stream to which encrypted data will be written
+	 * @param chunkSize
+	 *            plaintext bytes per segment
+	 * @param pool
+	 *            executor the segments are encrypted on
+	 * @throws AES.InvalidKeyLengthException
+	 *             if keyLength is not 128, 192, or 256
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *             if keyLength is 192 or 256, but the Java runtime's jurisdiction policy files do not allow 192- or 256-bit encryption
+	 * @throws IOException
+	 */
+	public static void encryptChunked(int keyLength, char[] password, InputStream input, OutputStream output, int chunkSize, ExecutorService pool)
+			throws InvalidKeyLengthException, StrongEncryptionNotAvailableException, IOException {
+		// Check validity of key length
+		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+			throw new InvalidKeyLengthException(keyLength);
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1 byte: " + chunkSize);
+		}
+
+		byte[] salt = generateSalt(SALT_LENGTH);
+		final Keys keys = keygen(keyLength, password, salt);
+		final byte[] header = chunkedHeader(keyLength, salt, chunkSize);
+		try { // fail early if 192 or 256-bit AES is not available
+			Cipher.getInstance(GCM_CIPHER_SPEC).init(Cipher.ENCRYPT_MODE, keys.encryption, new GCMParameterSpec(GCM_TAG_LENGTH, new byte[GCM_NONCE_LENGTH]));
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException impossible) {
+		} catch (InvalidKeyException e) {
+			throw new StrongEncryptionNotAvailableException(keyLength);
+		}
+		output.write(header);
+
+		// keep a bounded window of segments in flight, written in order as they complete
+		int window = 2 * Runtime.getRuntime().availableProcessors();
+		Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		final SecureRandom random = new SecureRandom();
+		byte[] chunk = readChunk(input, chunkSize);
+		for (long index = 0;; index++) {
+			byte[] next = chunk.length == chunkSize ? readChunk(input, chunkSize) : new byte[0];
+			final boolean last = next.length == 0;
+			final byte[] plain = chunk;
+			final long segment = index;
+			pending.add(pool.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					byte[] nonce = new byte[GCM_NONCE_LENGTH];
+					random.nextBytes(nonce);
+					byte[] out = new byte[SEGMENT_HEADER_LENGTH + plain.length + GCM_TAG_LENGTH / 8];
+					ByteBuffer.wrap(out).putLong(segment).putInt(plain.length).put((byte) (last ? 1 : 0)).put(nonce);
+					Cipher encrypt = Cipher.getInstance(GCM_CIPHER_SPEC);
+					encrypt.init(Cipher.ENCRYPT_MODE, keys.encryption, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+					encrypt.updateAAD(header);
+					encrypt.updateAAD(out, 0, SEGMENT_HEADER_LENGTH - GCM_NONCE_LENGTH);
+					encrypt.doFinal(plain, 0, plain.length, out, SEGMENT_HEADER_LENGTH);
+					return out;
+				}
+			}));
+			while (pending.size() >= window || (last && !pending.isEmpty())) {
+				output.write(awaitSegment(pending.poll()));
+			}
+			if (last) {
+				break;
+			}
+			chunk = next;
 		}
 	}
 
+	/**
+	 * Waits for a segment being encrypted or decrypted on the pool
+	 */
+	private static byte[] awaitSegment(Future<byte[]> segment) throws IOException {
+		try {
+			return segment.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads up to size bytes, stopping early only at the end of the stream
+	 */
+	private static byte[] readChunk(InputStream input, int size) throws IOException {
+		byte[] chunk = new byte[size];
+		int offset = 0;
+		int numRead;
+		while (offset < size && (numRead = input.read(chunk, offset, size - offset)) >= 0) {
+			offset += numRead;
+		}
+		return offset == size ? chunk : Arrays.copyOf(chunk, offset);
+	}
+
+	/**
+	 * Builds the authenticated header of a chunked stream
+	 */
+	private static byte[] chunkedHeader(int keyLength, byte[] salt, int chunkSize) {
+		return ByteBuffer.allocate(CHUNKED_HEADER_LENGTH).put((byte) FORMAT_CHUNKED).put((byte) (keyLength / 8)).put(salt).putInt(chunkSize).array();
+	}
+
+	/**
+	 * Builds the authenticated header of a GCM stream
+	 */
+	private static byte[] gcmHeader(int keyLength, byte[] salt) {
+		byte[] header = new byte[2 + salt.length];
+		header[0] = FORMAT_GCM;
+		header[1] = (byte) (keyLength / 8);
+		System.arraycopy(salt, 0, header, 2, salt.length);
+		return header;
+	}
+
+	/**
+	 * Runs a stream through an initialized cipher, reading, transforming and writing in chunks of the configured buffer size through buffers that are reused
+	 * for every chunk. Not for GCM decryption, which holds back its output until the final block, see {@link #transformHeldBack}.
+	 * 
+	 * @param cipher
+	 *            initialized cipher
+	 * @param input
+	 *            stream to read from
+	 * @param output
+	 *            stream to write to
+	 * @throws IOException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 *             if the final block is not padded correctly, or authenticated data fails to verify
+	 */
+	private static void transform(Cipher cipher, InputStream input, OutputStream output) throws IOException, IllegalBlockSizeException, BadPaddingException {
+		int size = bufferSize;
+		byte[] buffer = new byte[size];
+		byte[] transformed = new byte[cipher.getOutputSize(size)];
+		int numRead;
+		try {
+			while ((numRead = input.read(buffer)) > 0) {
+				int length = cipher.update(buffer, 0, numRead, transformed, 0);
+				output.write(transformed, 0, length);
+			}
+			// finish - do final block
+			int finalSize = cipher.getOutputSize(0);
+			if (finalSize > transformed.length) {
+				transformed = new byte[finalSize];
+			}
+			int length = cipher.doFinal(transformed, 0);
+			output.write(transformed, 0, length);
+		} catch (ShortBufferException impossible) {
+			throw new IllegalStateException(impossible);
+		}
+	}
+
+	/**
+	 * Runs a stream through an initialized cipher that holds back its output until the final block, as GCM decryption does. Input is passed to the cipher
+	 * without an output buffer, which would have to grow to the size of the whole stream, and the output is allocated once by the final block.
+	 * 
+	 * @param cipher
+	 *            initialized cipher
+	 * @param input
+	 *            stream to read from
+	 * @param output
+	 *            stream to write to
+	 * @throws IOException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 *             if authenticated data fails to verify
+	 */
+	private static void transformHeldBack(Cipher cipher, InputStream input, OutputStream output) throws IOException, IllegalBlockSizeException,
+			BadPaddingException {
+		byte[] buffer = new byte[bufferSize];
+		int numRead;
+		while ((numRead = input.read(buffer)) > 0) {
+			// Providers that do release data early return it here
+			byte[] transformed = cipher.update(buffer, 0, numRead);
+			if (transformed != null)
+				output.write(transformed);
+		}
+		output.write(cipher.doFinal());
+	}
+
 	/**
 	 * Decrypts a stream of data that was encrypted by {@link #encrypt}.
 	 * 
@@ -190,7 +607,14 @@ public class AES {
 	 */
 	public static int decrypt(char[] password, InputStream input, OutputStream output) throws InvalidPasswordException, InvalidAESStreamException, IOException,
 			StrongEncryptionNotAvailableException {
-		int keyLength = input.read() * 8;
+		int format = input.read();
+		if (format == FORMAT_GCM) {
+			return decryptGCM(password, input, output);
+		}
+		if (format == FORMAT_CHUNKED) {
+			return decryptChunked(password, input, output, ForkJoinPool.commonPool());
+		}
+		int keyLength = format * 8;
 		// Check validity of key length
 		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
 			throw new InvalidAESStreamException();
@@ -219,27 +643,236 @@ public class AES {
 		}
 
 		// read data from input into buffer, decrypt and write to output
-		byte[] buffer = new byte[BUFFER_SIZE];
-		int numRead;
-		byte[] decrypted;
-		while ((numRead = input.read(buffer)) > 0) {
-			decrypted = decrypt.update(buffer, 0, numRead);
-			if (decrypted != null) {
-				output.write(decrypted);
-			}
-		}
-		try { // finish decryption - do final block
-			decrypted = decrypt.doFinal();
+		try {
+			transform(decrypt, input, output);
 		} catch (IllegalBlockSizeException | BadPaddingException e) {
 			throw new InvalidAESStreamException(e);
 		}
-		if (decrypted != null) {
-			output.write(decrypted);
+
+		return keyLength;
+	}
+
+	/**
+	 * Decrypts the rest of a GCM stream written by {@link #encryptGCM}, after its format byte. The Java runtime holds back GCM plaintext until the
+	 * authentication tag has been verified, so the decrypted data is only written once the whole stream has been read.
+	 * 
+	 * @return the key length for the decrypted stream (128, 192, or 256)
+	 */
+	private static int decryptGCM(char[] password, InputStream input, OutputStream output) throws InvalidPasswordException, InvalidAESStreamException,
+			IOException, StrongEncryptionNotAvailableException {
+		int keyLength = input.read() * 8;
+		// Check validity of key length
+		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+			throw new InvalidAESStreamException();
 		}
 
+		byte[] salt = new byte[SALT_LENGTH];
+		readFully(input, salt);
+		byte[] nonce = new byte[GCM_NONCE_LENGTH];
+		readFully(input, nonce);
+		Keys keys = keygen(keyLength, password, salt);
+
+		Cipher decrypt = null;
+		try {
+			decrypt = Cipher.getInstance(GCM_CIPHER_SPEC);
+			decrypt.init(Cipher.DECRYPT_MODE, keys.encryption, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException impossible) {
+		} catch (InvalidKeyException e) { // 192 or 256-bit AES not available
+			throw new StrongEncryptionNotAvailableException(keyLength);
+		}
+		decrypt.updateAAD(gcmHeader(keyLength, salt));
+
+		try {
+			transformHeldBack(decrypt, input, output);
+		} catch (AEADBadTagException e) { // wrong password, or the stream was modified
+			throw new InvalidPasswordException();
+		} catch (IllegalBlockSizeException | BadPaddingException e) {
+			throw new InvalidAESStreamException(e);
+		}
 		return keyLength;
 	}
 
+	/**
+	 * Decrypts a stream written by {@link #encryptChunked}, decrypting its segments in parallel and writing them in order.
+	 * 
+	 * @param password
+	 *            the password used to encrypt/decrypt the stream
+	 * @param input
+	 *            stream of encrypted data to be decrypted
+	 * @param output
+	 *            stream to which decrypted data will be written
+	 * @param pool
+	 *            executor the segments are decrypted on
+	 * @return the key length for the decrypted stream (128, 192, or 256)
+	 * @throws AES.InvalidPasswordException
+	 *             if the given password was not used to encrypt the data, or a segment was modified
+	 * @throws AES.InvalidAESStreamException
+	 *             if the given input stream is not a valid chunked AES stream
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *             if the stream is 192 or 256-bit encrypted, and the Java runtime's jurisdiction policy files do not allow for AES-192 or 256
+	 * @throws IOException
+	 */
+	public static int decryptChunked(char[] password, InputStream input, OutputStream output, ExecutorService pool) throws InvalidPasswordException,
+			InvalidAESStreamException, IOException, StrongEncryptionNotAvailableException {
+		byte[] header = new byte[CHUNKED_HEADER_LENGTH];
+		header[0] = FORMAT_CHUNKED;
+		readFully(input, header, 1);
+		final ChunkedStream stream = readChunkedHeader(password, header);
+
+		int window = 2 * Runtime.getRuntime().availableProcessors();
+		Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		boolean last = false;
+		for (long index = 0; !last; index++) {
+			final byte[] segment = readSegment(input, stream, index);
+			last = segment[8 + 4] == 1;
+			pending.add(pool.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return stream.decrypt(segment);
+				}
+			}));
+			while (pending.size() >= window || (last && !pending.isEmpty())) {
+				output.write(awaitPlainSegment(pending.poll()));
+			}
+		}
+		return stream.keyLength;
+	}
+
+	/**
+	 * Decrypts a single segment of a stream written by {@link #encryptChunked}, without reading the segments before it
+	 * 
+	 * @param password
+	 *            the password used to encrypt/decrypt the stream
+	 * @param file
+	 *            file holding the encrypted stream
+	 * @param index
+	 *            index of the segment to decrypt
+	 * @return the decrypted segment
+	 * @throws AES.InvalidPasswordException
+	 *             if the given password was not used to encrypt the data, or the segment was modified
+	 * @throws AES.InvalidAESStreamException
+	 *             if the file is not a valid chunked AES stream or has no such segment
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *             if the stream is 192 or 256-bit encrypted, and the Java runtime's jurisdiction policy files do not allow for AES-192 or 256
+	 * @throws IOException
+	 */
+	public static byte[] decryptChunk(char[] password, RandomAccessFile file, long index) throws InvalidPasswordException, InvalidAESStreamException,
+			IOException, StrongEncryptionNotAvailableException {
+		byte[] header = new byte[CHUNKED_HEADER_LENGTH];
+		file.seek(0);
+		file.readFully(header);
+		if (header[0] != FORMAT_CHUNKED) {
+			throw new InvalidAESStreamException();
+		}
+		ChunkedStream stream = readChunkedHeader(password, header);
+		long segmentLength = SEGMENT_HEADER_LENGTH + (long) stream.chunkSize + GCM_TAG_LENGTH / 8;
+		long offset = CHUNKED_HEADER_LENGTH + index * segmentLength;
+		if (index < 0 || offset >= file.length()) {
+			throw new InvalidAESStreamException();
+		}
+		byte[] raw = new byte[(int) Math.min(segmentLength, file.length() - offset)];
+		file.seek(offset);
+		file.readFully(raw);
+		byte[] segment = readSegment(new ByteArrayInputStream(raw), stream, index);
+		try {
+			return stream.decrypt(segment);
+		} catch (AEADBadTagException e) {
+			throw new InvalidPasswordException();
+		} catch (GeneralSecurityException e) {
+			throw new InvalidAESStreamException(e);
+		}
+	}
+
+	/**
+	 * Parses the header of a chunked stream and derives its key
+	 */
+	private static ChunkedStream readChunkedHeader(char[] password, byte[] header) throws InvalidAESStreamException, StrongEncryptionNotAvailableException {
+		ByteBuffer buffer = ByteBuffer.wrap(header, 1, header.length - 1);
+		int keyLength = buffer.get() * 8;
+		// Check validity of key length
+		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+			throw new InvalidAESStreamException();
+		}
+		byte[] salt = new byte[SALT_LENGTH];
+		buffer.get(salt);
+		int chunkSize = buffer.getInt();
+		if (chunkSize < 1) {
+			throw new InvalidAESStreamException();
+		}
+		ChunkedStream stream = new ChunkedStream(keyLength, keygen(keyLength, password, salt).encryption, header, chunkSize);
+		try { // fail early if 192 or 256-bit AES is not available
+			Cipher.getInstance(GCM_CIPHER_SPEC).init(Cipher.DECRYPT_MODE, stream.key, new GCMParameterSpec(GCM_TAG_LENGTH, new byte[GCM_NONCE_LENGTH]));
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException impossible) {
+		} catch (InvalidKeyException e) {
+			throw new StrongEncryptionNotAvailableException(keyLength);
+		}
+		return stream;
+	}
+
+	/**
+	 * Reads the next segment of a chunked stream and checks its framing
+	 */
+	private static byte[] readSegment(InputStream input, ChunkedStream stream, long index) throws IOException, InvalidAESStreamException {
+		byte[] segmentHeader = new byte[SEGMENT_HEADER_LENGTH];
+		readFully(input, segmentHeader, 0);
+		ByteBuffer buffer = ByteBuffer.wrap(segmentHeader);
+		long segmentIndex = buffer.getLong();
+		int length = buffer.getInt();
+		int last = buffer.get();
+		if (segmentIndex != index || length < 0 || length > stream.chunkSize || (last == 0 && length != stream.chunkSize) || (last != 0 && last != 1)) {
+			throw new InvalidAESStreamException();
+		}
+		byte[] segment = Arrays.copyOf(segmentHeader, SEGMENT_HEADER_LENGTH + length + GCM_TAG_LENGTH / 8);
+		readFully(input, segment, SEGMENT_HEADER_LENGTH);
+		return segment;
+	}
+
+	/**
+	 * Waits for a segment being decrypted on the pool, translating a failed authentication tag
+	 */
+	private static byte[] awaitPlainSegment(Future<byte[]> segment) throws IOException, InvalidPasswordException, InvalidAESStreamException {
+		try {
+			return segment.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			// some executors wrap the exception thrown by the task again
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof AEADBadTagException) { // wrong password, or the segment was modified
+					throw new InvalidPasswordException();
+				}
+			}
+			throw new InvalidAESStreamException(e);
+		}
+	}
+
+	/**
+	 * Reads exactly enough bytes to fill an array
+	 * 
+	 * @throws AES.InvalidAESStreamException
+	 *             if the stream ends first
+	 */
+	private static void readFully(InputStream input, byte[] b) throws IOException, InvalidAESStreamException {
+		readFully(input, b, 0);
+	}
+
+	/**
+	 * Reads exactly enough bytes to fill an array from an offset onwards
+	 * 
+	 * @throws AES.InvalidAESStreamException
+	 *             if the stream ends first
+	 */
+	private static void readFully(InputStream input, byte[] b, int offset) throws IOException, InvalidAESStreamException {
+		while (offset < b.length) {
+			int numRead = input.read(b, offset, b.length - offset);
+			if (numRead < 0) {
+				throw new InvalidAESStreamException();
+			}
+			offset += numRead;
+		}
+	}
+
 	/**
 	 * A tuple of encryption and authentication keys returned by {@link #keygen}
 	 */
@@ -253,6 +886,81 @@ public class AES {
 		}
 	}
 
+	/**
+	 * Key and header of a chunked stream, shared by the tasks decrypting its segments
+	 */
+	private static class ChunkedStream {
+
+		public final int keyLength, chunkSize;
+		public final SecretKey key;
+		public final byte[] header;
+
+		public ChunkedStream(int keyLength, SecretKey key, byte[] header, int chunkSize) {
+			this.keyLength = keyLength;
+			this.key = key;
+			this.header = header;
+			this.chunkSize = chunkSize;
+		}
+
+		/**
+		 * Authenticates and decrypts a segment read by {@link AES#readSegment}
+		 */
+		public byte[] decrypt(byte[] segment) throws GeneralSecurityException {
+			Cipher decrypt = Cipher.getInstance(GCM_CIPHER_SPEC);
+			decrypt.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(GCM_TAG_LENGTH, segment, SEGMENT_HEADER_LENGTH - GCM_NONCE_LENGTH,
+					GCM_NONCE_LENGTH));
+			decrypt.updateAAD(this.header);
+			decrypt.updateAAD(segment, 0, SEGMENT_HEADER_LENGTH - GCM_NONCE_LENGTH);
+			return decrypt.doFinal(segment, SEGMENT_HEADER_LENGTH, segment.length - SEGMENT_HEADER_LENGTH);
+		}
+	}
+
+	/**
+	 * Key of the derived key cache. Only a hash of the password is kept, and it is zeroized once the entry is evicted.
+	 */
+	private static class KeyCacheEntry {
+
+		private final int keyLength;
+		private final byte[] passwordHash, salt;
+		private final int hash;
+
+		public KeyCacheEntry(int keyLength, char[] password, byte[] salt) {
+			this.keyLength = keyLength;
+			this.salt = salt.clone();
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException impossible) {
+				throw new IllegalStateException(impossible);
+			}
+			for (char c : password) {
+				digest.update((byte) (c >> 8));
+				digest.update((byte) c);
+			}
+			this.passwordHash = digest.digest();
+			this.hash = 31 * (31 * keyLength + Arrays.hashCode(this.passwordHash)) + Arrays.hashCode(this.salt);
+		}
+
+		public void zeroize() {
+			Arrays.fill(this.passwordHash, (byte) 0);
+			Arrays.fill(this.salt, (byte) 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof KeyCacheEntry)) {
+				return false;
+			}
+			KeyCacheEntry other = (KeyCacheEntry) o;
+			return this.keyLength == other.keyLength && MessageDigest.isEqual(this.passwordHash, other.passwordHash) && Arrays.equals(this.salt, other.salt);
+		}
+	}
+
 	// ******** EXCEPTIONS thrown by encrypt and decrypt ********
 
 	/**
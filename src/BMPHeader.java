@@ -0,0 +1,277 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses the file header and info header of a Bitmap Image
+ */
+public class BMPHeader {
+
+	/**
+	 * Size of the BITMAPFILEHEADER in bytes
+	 */
+	public static final int FILE_HEADER_SIZE = 14;
+	/**
+	 * Size of the BITMAPCOREHEADER in bytes
+	 */
+	public static final int CORE_HEADER_SIZE = 12;
+	/**
+	 * Size of the BITMAPINFOHEADER in bytes
+	 */
+	public static final int INFO_HEADER_SIZE = 40;
+	/**
+	 * Uncompressed pixel data
+	 */
+	public static final int BI_RGB = 0;
+
+	/**
+	 * Largest offset of the pixel data accepted, the header, palette and bit masks of any real Bitmap Image being far smaller
+	 */
+	private static final int MAX_PIXEL_OFFSET = 1 << 20;
+
+	/**
+	 * Raw bytes of the file from its start up to the pixel data
+	 */
+	private byte[] prefix;
+
+	/**
+	 * Offset of the pixel data from the start of the file
+	 */
+	private int pixelOffset;
+	/**
+	 * Size of the info header
+	 */
+	private int headerSize;
+	/**
+	 * Width of the Bitmap Image
+	 */
+	private int width;
+	/**
+	 * Height of the Bitmap Image
+	 */
+	private int height;
+	/**
+	 * If rows are stored top to bottom instead of the usual bottom to top
+	 */
+	private boolean topDown;
+	/**
+	 * Bits used per pixel
+	 */
+	private int bitCount;
+	/**
+	 * Compression method of the pixel data
+	 */
+	private int compression;
+
+	/**
+	 * Constructs a BMPHeader Object, use {@link #read(InputStream)} to parse one
+	 */
+	private BMPHeader() {
+
+	}
+
+	/**
+	 * Reads a Bitmap header from a stream, leaving the stream positioned at the start of the pixel data
+	 *
+	 * @param in
+	 *            Stream positioned at the start of a Bitmap File
+	 * @return Parsed header
+	 * @throws IOException
+	 * @throws FileException
+	 *             If the stream does not contain a Bitmap Image
+	 */
+	public static BMPHeader read(InputStream in) throws IOException, FileException {
+		DataInputStream data = new DataInputStream(in);
+		byte[] fileHeader = new byte[FILE_HEADER_SIZE + 4];
+		data.readFully(fileHeader);
+		if (fileHeader[0] != 'B' || fileHeader[1] != 'M')
+			throw new FileException("The specified File is not a Bitmap Image");
+
+		BMPHeader header = new BMPHeader();
+		header.pixelOffset = getInt(fileHeader, 10);
+		header.headerSize = getInt(fileHeader, 14);
+		if (header.headerSize < CORE_HEADER_SIZE || header.pixelOffset < FILE_HEADER_SIZE + header.headerSize || header.pixelOffset > MAX_PIXEL_OFFSET)
+			throw new FileException("The specified File has a malformed Bitmap header");
+
+		header.prefix = new byte[header.pixelOffset];
+		System.arraycopy(fileHeader, 0, header.prefix, 0, fileHeader.length);
+		data.readFully(header.prefix, fileHeader.length, header.prefix.length - fileHeader.length);
+
+		int planes;
+		int height;
+		if (header.headerSize == CORE_HEADER_SIZE) {
+			header.width = getShort(header.prefix, 18);
+			height = getShort(header.prefix, 20);
+			planes = getShort(header.prefix, 22);
+			header.bitCount = getShort(header.prefix, 24);
+			header.compression = BI_RGB;
+		} else {
+			header.width = getInt(header.prefix, 18);
+			height = getInt(header.prefix, 22);
+			planes = getShort(header.prefix, 26);
+			header.bitCount = getShort(header.prefix, 28);
+			header.compression = getInt(header.prefix, 30);
+		}
+		header.topDown = height < 0;
+		header.height = Math.abs(height);
+		if (planes != 1 || header.width <= 0 || header.height <= 0 || header.bitCount <= 0 || header.bitCount > 32)
+			throw new FileException("The specified File has a malformed Bitmap header");
+		// Math.abs leaves Integer.MIN_VALUE negative, so the height check above also catches it
+		if (((long) header.bitCount * header.width + 31) / 32 * 4 > Integer.MAX_VALUE)
+			throw new FileException("The specified File has a malformed Bitmap header");
+		return header;
+	}
+
+	/**
+	 * Decides whether the pixel data is a plain uncompressed 24-bit or 32-bit layout, which can be read and written without going through ImageIO
+	 *
+	 * @return True if the pixel data is uncompressed 24-bit or 32-bit
+	 */
+	public boolean isDirectColor() {
+		return this.compression == BI_RGB && (this.bitCount == 24 || this.bitCount == 32);
+	}
+
+	/**
+	 * Decides whether a file of the specified length holds every row of the uncompressed pixel data the header describes
+	 *
+	 * @param fileLength
+	 *            Length of the Bitmap File
+	 * @return True if the file is long enough
+	 */
+	public boolean isComplete(long fileLength) {
+		return this.pixelOffset + (long) this.getRowStride() * this.height <= fileLength;
+	}
+
+	/**
+	 * Gets the number of pixels of the image
+	 *
+	 * @return Width times height
+	 */
+	public long getPixelCount() {
+		return (long) this.width * this.height;
+	}
+
+	/**
+	 * Gets the raw bytes of the file up to the pixel data, used to write an image back in the same layout
+	 *
+	 * @return Raw header bytes
+	 */
+	public byte[] getPrefix() {
+		return this.prefix;
+	}
+
+	/**
+	 * Gets the offset of the pixel data from the start of the file
+	 *
+	 * @return Offset of pixel data
+	 */
+	public int getPixelOffset() {
+		return this.pixelOffset;
+	}
+
+	/**
+	 * Gets the width of the BMP image
+	 *
+	 * @return Width of image
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Gets the height of the BMP image
+	 *
+	 * @return Height of image
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Gets whether rows are stored top to bottom
+	 *
+	 * @return True if the first stored row is the top of the image
+	 */
+	public boolean isTopDown() {
+		return this.topDown;
+	}
+
+	/**
+	 * Gets the number of bits per pixel
+	 *
+	 * @return Bits per pixel
+	 */
+	public int getBitCount() {
+		return this.bitCount;
+	}
+
+	/**
+	 * Gets the number of bytes per pixel of a direct color image
+	 *
+	 * @return Bytes per pixel
+	 */
+	public int getBytesPerPixel() {
+		return this.bitCount / 8;
+	}
+
+	/**
+	 * Gets the compression method of the pixel data
+	 *
+	 * @return Compression method
+	 */
+	public int getCompression() {
+		return this.compression;
+	}
+
+	/**
+	 * Gets the number of bytes per stored row, including the padding to a multiple of 4 bytes
+	 *
+	 * @return Bytes per row
+	 */
+	public int getRowStride() {
+		return (int) (((long) this.bitCount * this.width + 31) / 32 * 4);
+	}
+
+	/**
+	 * Gets the offset from the start of the file of the row holding the specified line of the image
+	 *
+	 * @param y
+	 *            Y coordinate of the line, 0 being the top of the image
+	 * @return Offset of the row in the file
+	 */
+	public long getRowOffset(int y) {
+		int row = this.topDown ? y : this.height - 1 - y;
+		return this.pixelOffset + (long) row * this.getRowStride();
+	}
+
+	/**
+	 * Reads a little-endian 32-bit value
+	 */
+	private static int getInt(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 * Reads a little-endian 16-bit value
+	 */
+	private static int getShort(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+	}
+}
@@ -18,14 +18,32 @@ along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
 */
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
 /**
  * Loads a Bitmap Image
  * 
+ * The channel getters and setters report a pixel outside the image with a PixelException. The packed ARGB accessors, {@link #getPixel(int, int)},
+ * {@link #setPixel(int, int, int)}, {@link #readRow(int, int[])} and {@link #writeRow(int, int[])}, are meant for tight loops and throw an unchecked
+ * IndexOutOfBoundsException instead, like array access.
+ * 
  * @author 16lkarinja
  * 
  */
@@ -48,11 +66,30 @@ public class BMPLoader {
 	 */
 	public static final int RGB_BLUE = 3;
 
+	/**
+	 * Pixel data runs down each column and then across the columns, the layout of every image encoded before row order was added
+	 */
+	public static final int PIXEL_ORDER_COLUMNS = 0;
+	/**
+	 * Pixel data runs across each row and then down the rows, the order pixels are held in memory and stored in the file
+	 */
+	public static final int PIXEL_ORDER_ROWS = 1;
+
+	/**
+	 * Most pixels an image may have, so the packed image data and the pixel data with alpha both fit in an array
+	 */
+	public static final long MAX_PIXELS = Integer.MAX_VALUE / 4;
+
 	/**
 	 * If the BMP image is using an alpha layer, almost always it is not (Keep as false)
 	 */
 	private boolean usingAlpha = false;
 
+	/**
+	 * Order of the pixels in the pixel data, PIXEL_ORDER_COLUMNS or PIXEL_ORDER_ROWS
+	 */
+	private int pixelOrder = PIXEL_ORDER_COLUMNS;
+
 	/**
 	 * ImageBuffer of the bitmap image
 	 */
@@ -63,6 +100,11 @@ public class BMPLoader {
 	 */
 	private File bmpFile;
 
+	/**
+	 * Header of the bitmap image if its pixels were read directly from the file, null if it was loaded through ImageIO
+	 */
+	private BMPHeader bmpHeader = null;
+
 	/**
 	 * Height of the Bitmap Image
 	 */
@@ -72,9 +114,19 @@ public class BMPLoader {
 	 */
 	private int bmpWidth;
 	/**
-	 * RGB Data of the Bitmap Image, in the form of "Y, X, Color"
+	 * RGB Data of the Bitmap Image, one packed ARGB int per pixel in row-major order (index is "Y * Width + X")
+	 */
+	private int[] rgbData;
+
+	/**
+	 * Alpha bytes of a 32-bit image read directly from the file while not using alpha, kept so saving writes them back unchanged, null otherwise
 	 */
-	private byte[][][] rgbData;
+	private byte[] alphaData;
+
+	/**
+	 * Rows of the packed image data changed since they were last copied into the Image Buffer
+	 */
+	private boolean[] dirtyRows;
 
 	/**
 	 * Default Constructor
@@ -119,39 +171,194 @@ public class BMPLoader {
 	}
 
 	/**
-	 * Loads the Image Data into a byte array of Y, X, Color
+	 * Loads the Image Data into a packed array of ARGB pixels. Uncompressed 24-bit and 32-bit images are read straight from the file, any other Bitmap Image is
+	 * decoded through ImageIO. Any image loaded before is discarded first, so a failed load leaves no image behind.
+	 * 
+	 * @throws FileException
+	 *             If the file could not be read, is not a Bitmap Image, is truncated or is too large
 	 */
-	public void loadFile() {
+	public void loadFile() throws FileException {
+		this.clear();
 		try {
-			this.imageBuffer = ImageIO.read(this.bmpFile);
-			this.bmpHeight = imageBuffer.getHeight();
-			this.bmpWidth = imageBuffer.getWidth();
-			this.rgbData = new byte[this.bmpHeight][this.bmpWidth][4];
-			for (int y = 0; y < this.bmpHeight; y++) {
-				for (int x = 0; x < this.bmpWidth; x++) {
-					int pixelData = imageBuffer.getRGB(x, y);
-					if (this.usingAlpha)
-						this.rgbData[y][x][RGB_ALPHA] = (byte) (pixelData >> 24);
-					this.rgbData[y][x][RGB_RED] = (byte) (pixelData >> 16);
-					this.rgbData[y][x][RGB_GREEN] = (byte) (pixelData >> 8);
-					this.rgbData[y][x][RGB_BLUE] = (byte) (pixelData);
+			InputStream in = new BufferedInputStream(new FileInputStream(this.bmpFile));
+			try {
+				BMPHeader header = BMPHeader.read(in);
+				if (header.getPixelCount() > MAX_PIXELS)
+					throw new FileException("The specified File has more than " + MAX_PIXELS + " pixels");
+				if (header.isDirectColor()) {
+					if (!header.isComplete(this.bmpFile.length()))
+						throw new FileException("The specified File is truncated");
+					this.readPixels(header, in);
+					return;
 				}
+			} finally {
+				in.close();
 			}
+			BufferedImage image = ImageIO.read(this.bmpFile);
+			if (image == null)
+				throw new FileException("The specified File could not be decoded");
+			this.imageBuffer = image;
+			this.bmpHeight = imageBuffer.getHeight();
+			this.bmpWidth = imageBuffer.getWidth();
+			this.rgbData = new int[this.bmpHeight * this.bmpWidth];
+			this.dirtyRows = new boolean[this.bmpHeight];
+			this.readBuffer();
 		} catch (IOException e) {
-			e.printStackTrace();
+			this.clear();
+			throw new FileException("The specified File could not be read", e);
+		}
+		return;
+	}
+
+	/**
+	 * Discards the loaded image
+	 */
+	private void clear() {
+		this.bmpHeader = null;
+		this.imageBuffer = null;
+		this.rgbData = null;
+		this.alphaData = null;
+		this.dirtyRows = null;
+		this.bmpWidth = 0;
+		this.bmpHeight = 0;
+		return;
+	}
+
+	/**
+	 * Reads uncompressed 24-bit or 32-bit pixel rows from a stream positioned at the pixel data into the packed image data
+	 * 
+	 * @param header
+	 *            Header of the Bitmap Image
+	 * @param in
+	 *            Stream positioned at the start of the pixel data
+	 * @throws IOException
+	 */
+	private void readPixels(BMPHeader header, InputStream in) throws IOException {
+		this.bmpHeader = header;
+		this.imageBuffer = null;
+		this.bmpWidth = header.getWidth();
+		this.bmpHeight = header.getHeight();
+		this.rgbData = new int[this.bmpHeight * this.bmpWidth];
+		this.dirtyRows = new boolean[this.bmpHeight];
+
+		DataInputStream data = new DataInputStream(in);
+		int bytesPerPixel = header.getBytesPerPixel();
+		if (bytesPerPixel == 4 && !this.usingAlpha)
+			this.alphaData = new byte[this.bmpHeight * this.bmpWidth];
+		byte[] row = new byte[header.getRowStride()];
+		for (int r = 0; r < this.bmpHeight; r++) {
+			data.readFully(row);
+			int y = header.isTopDown() ? r : this.bmpHeight - 1 - r;
+			int index = y * this.bmpWidth;
+			int offset = 0;
+			for (int x = 0; x < this.bmpWidth; x++) {
+				int a = 0;
+				if (this.usingAlpha && bytesPerPixel == 4)
+					a = (row[offset + 3] << 24) & 0xFF000000;
+				else if (bytesPerPixel == 4)
+					this.alphaData[index] = row[offset + 3];
+				int red = (row[offset + 2] << 16) & 0x00FF0000;
+				int green = (row[offset + 1] << 8) & 0x0000FF00;
+				int blue = row[offset] & 0x000000FF;
+				this.rgbData[index] = a | red | green | blue;
+				offset += bytesPerPixel;
+				index++;
+			}
 		}
 		return;
 	}
 
-	public void saveToFile(String fileName) {
+	/**
+	 * Saves the image to a Bitmap File. Images that were read directly from the file are written in the layout they were loaded with, any other image is
+	 * written from the Image Buffer through ImageIO. If the Image Buffer has been made, changed rows of the packed image data are copied into it first and the
+	 * image is saved from it, so changes made through either are kept.
+	 * 
+	 * @param fileName
+	 *            Name of the Bitmap File to save to
+	 * @throws FileException
+	 *             If the file could not be written
+	 */
+	public void saveToFile(String fileName) throws FileException {
 		try {
-			ImageIO.write(this.imageBuffer, "BMP", new File(fileName));
+			if (this.imageBuffer != null)
+				this.recalcBuffer();
+			if (this.bmpHeader != null) {
+				if (this.imageBuffer != null)
+					this.readBuffer();
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName));
+				try {
+					this.writePixels(out);
+				} finally {
+					out.close();
+				}
+			} else if (!ImageIO.write(this.imageBuffer, "BMP", new File(fileName))) {
+				throw new FileException("No Bitmap writer for the image");
+			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new FileException("The specified File could not be written", e);
 		}
 		return;
 	}
 
+	/**
+	 * Writes the original header followed by the packed image data as uncompressed pixel rows
+	 * 
+	 * @param out
+	 *            Stream to write the Bitmap Image to
+	 * @throws IOException
+	 */
+	private void writePixels(OutputStream out) throws IOException {
+		out.write(this.bmpHeader.getPrefix());
+		int bytesPerPixel = this.bmpHeader.getBytesPerPixel();
+		byte[] row = new byte[this.bmpHeader.getRowStride()];
+		for (int r = 0; r < this.bmpHeight; r++) {
+			int y = this.bmpHeader.isTopDown() ? r : this.bmpHeight - 1 - r;
+			int index = y * this.bmpWidth;
+			int offset = 0;
+			for (int x = 0; x < this.bmpWidth; x++) {
+				int argb = this.rgbData[index];
+				row[offset] = (byte) argb;
+				row[offset + 1] = (byte) (argb >> 8);
+				row[offset + 2] = (byte) (argb >> 16);
+				if (bytesPerPixel == 4)
+					row[offset + 3] = this.usingAlpha ? (byte) (argb >> 24) : this.alphaData[index];
+				offset += bytesPerPixel;
+				index++;
+			}
+			out.write(row);
+		}
+		return;
+	}
+
+	/**
+	 * Sets the order in which {@link #getPixelData()} and {@link #setPixelData(byte[])} walk the pixels
+	 * 
+	 * @param pixelOrder
+	 *            PIXEL_ORDER_COLUMNS or PIXEL_ORDER_ROWS
+	 * @throws PixelException
+	 *             If the pixel order is unknown
+	 */
+	public void setPixelOrder(int pixelOrder) throws PixelException {
+		if (pixelOrder != PIXEL_ORDER_COLUMNS && pixelOrder != PIXEL_ORDER_ROWS)
+			throw new PixelException("Unknown pixel order " + pixelOrder);
+		this.pixelOrder = pixelOrder;
+		return;
+	}
+
+	/**
+	 * Gets the order in which the pixel data walks the pixels
+	 * 
+	 * @return PIXEL_ORDER_COLUMNS or PIXEL_ORDER_ROWS
+	 */
+	public int getPixelOrder() {
+		return this.pixelOrder;
+	}
+
+	/**
+	 * Gets a copy of the color channels of every pixel, in the current pixel order
+	 * 
+	 * @return Red, green and blue of each pixel
+	 */
 	public byte[] getPixelData() {
 		byte[] data;
 		if (this.usingAlpha) {
@@ -159,38 +366,57 @@ public class BMPLoader {
 		} else {
 			data = new byte[this.bmpHeight * this.bmpWidth * 3];
 		}
+		// Row order is one sequential pass over the packed pixels, column order a pass per column
+		int passes = this.pixelOrder == PIXEL_ORDER_ROWS ? 1 : this.bmpWidth;
+		int step = this.pixelOrder == PIXEL_ORDER_ROWS ? 1 : this.bmpWidth;
 		int index = 0;
-		for (int x = 0; x < this.bmpWidth; x++) {
-			for (int y = 0; y < this.bmpHeight; y++) {
+		for (int x = 0; x < passes; x++) {
+			for (int pixel = x; pixel < this.rgbData.length; pixel += step) {
+				int argb = this.rgbData[pixel];
 				if (this.usingAlpha) {
-					data[index] = this.rgbData[y][x][RGB_ALPHA];
+					data[index] = (byte) (argb >> 24);
 					index++;
 				}
-				data[index] = this.rgbData[y][x][RGB_RED];
+				data[index] = (byte) (argb >> 16);
 				index++;
-				data[index] = this.rgbData[y][x][RGB_GREEN];
+				data[index] = (byte) (argb >> 8);
 				index++;
-				data[index] = this.rgbData[y][x][RGB_BLUE];
+				data[index] = (byte) argb;
 				index++;
 			}
 		}
 		return data;
 	}
 
+	/**
+	 * Sets the color channels of every pixel from data laid out in the current pixel order. Only rows where a pixel actually changes are marked for
+	 * {@link #recalcBuffer()}.
+	 * 
+	 * @param data
+	 *            Red, green and blue of each pixel
+	 */
 	public void setPixelData(byte[] data) {
+		int passes = this.pixelOrder == PIXEL_ORDER_ROWS ? 1 : this.bmpWidth;
+		int step = this.pixelOrder == PIXEL_ORDER_ROWS ? 1 : this.bmpWidth;
 		int index = 0;
-		for (int x = 0; x < this.bmpWidth; x++) {
-			for (int y = 0; y < this.bmpHeight; y++) {
+		for (int x = 0; x < passes; x++) {
+			for (int pixel = x; pixel < this.rgbData.length; pixel += step) {
+				int a = 0;
 				if (this.usingAlpha) {
-					this.rgbData[y][x][RGB_ALPHA] = data[index];
+					a = (data[index] << 24) & 0xFF000000;
 					index++;
 				}
-				this.rgbData[y][x][RGB_RED] = data[index];
+				int r = (data[index] << 16) & 0x00FF0000;
 				index++;
-				this.rgbData[y][x][RGB_GREEN] = data[index];
+				int g = (data[index] << 8) & 0x0000FF00;
 				index++;
-				this.rgbData[y][x][RGB_BLUE] = data[index];
+				int b = data[index] & 0x000000FF;
 				index++;
+				int argb = a | r | g | b;
+				if (this.rgbData[pixel] != argb) {
+					this.rgbData[pixel] = argb;
+					this.dirtyRows[pixel / this.bmpWidth] = true;
+				}
 			}
 		}
 		return;
@@ -208,17 +434,14 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public String pixelData(int x, int y) throws PixelException {
-		String pixelData = "";
-		try {
-			if (this.usingAlpha)
-				pixelData += "Alpha: " + this.rgbData[y][x][RGB_ALPHA] + "\n";
-			pixelData += "Red: " + this.rgbData[y][x][RGB_RED] + "\n";
-			pixelData += "Green: " + this.rgbData[y][x][RGB_GREEN] + "\n";
-			pixelData += "Blue: " + this.rgbData[y][x][RGB_BLUE] + "\n";
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
-		return pixelData;
+		int argb = this.rgbData[this.pixelIndex(x, y)];
+		StringBuilder pixelData = new StringBuilder(48);
+		if (this.usingAlpha)
+			pixelData.append("Alpha: ").append((byte) (argb >> 24)).append('\n');
+		pixelData.append("Red: ").append((byte) (argb >> 16)).append('\n');
+		pixelData.append("Green: ").append((byte) (argb >> 8)).append('\n');
+		pixelData.append("Blue: ").append((byte) argb).append('\n');
+		return pixelData.toString();
 	}
 
 	/**
@@ -233,11 +456,7 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public byte getAplha(int x, int y) throws PixelException {
-		try {
-			return this.rgbData[y][x][RGB_ALPHA];
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
+		return this.getChannel(x, y, RGB_ALPHA);
 	}
 
 	/**
@@ -252,11 +471,7 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public byte getRed(int x, int y) throws PixelException {
-		try {
-			return this.rgbData[y][x][RGB_RED];
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
+		return this.getChannel(x, y, RGB_RED);
 	}
 
 	/**
@@ -271,11 +486,7 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public byte getGreen(int x, int y) throws PixelException {
-		try {
-			return this.rgbData[y][x][RGB_GREEN];
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
+		return this.getChannel(x, y, RGB_GREEN);
 	}
 
 	/**
@@ -290,11 +501,7 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public byte getBlue(int x, int y) throws PixelException {
-		try {
-			return this.rgbData[y][x][RGB_BLUE];
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
+		return this.getChannel(x, y, RGB_BLUE);
 	}
 
 	/**
@@ -310,11 +517,7 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public void setAplha(int x, int y, byte value) throws PixelException {
-		try {
-			this.rgbData[y][x][RGB_ALPHA] = value;
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
+		this.setChannel(x, y, RGB_ALPHA, value);
 		return;
 	}
 
@@ -331,11 +534,7 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public void setRed(int x, int y, byte value) throws PixelException {
-		try {
-			this.rgbData[y][x][RGB_RED] = value;
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
+		this.setChannel(x, y, RGB_RED, value);
 		return;
 	}
 
@@ -352,11 +551,7 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public void setGreen(int x, int y, byte value) throws PixelException {
-		try {
-			this.rgbData[y][x][RGB_GREEN] = value;
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
-		}
+		this.setChannel(x, y, RGB_GREEN, value);
 		return;
 	}
 
@@ -373,29 +568,378 @@ public class BMPLoader {
 	 * @throws PixelException
 	 */
 	public void setBlue(int x, int y, byte value) throws PixelException {
-		try {
-			this.rgbData[y][x][RGB_BLUE] = value;
-		} catch (IndexOutOfBoundsException e) {
-			throw new PixelException();
+		this.setChannel(x, y, RGB_BLUE, value);
+		return;
+	}
+
+	/**
+	 * Gets the specified pixel as a packed ARGB int. Unlike the channel getters this throws an unchecked exception, so it can be called from tight loops
+	 * whose bounds checks the JIT can hoist.
+	 * 
+	 * @param x
+	 *            X coordinate of the pixel
+	 * @param y
+	 *            Y coordinate of the pixel
+	 * @return Packed pixel, the alpha bits being 0 unless the image is using alpha
+	 * @throws IndexOutOfBoundsException
+	 *             If the pixel is outside the image
+	 */
+	public int getPixel(int x, int y) {
+		if (x < 0 || x >= this.bmpWidth || y < 0 || y >= this.bmpHeight)
+			throw new IndexOutOfBoundsException("Pixel out of range: " + x + ", " + y);
+		return this.rgbData[y * this.bmpWidth + x];
+	}
+
+	/**
+	 * Sets the specified pixel from a packed ARGB int, see {@link #getPixel(int, int)}
+	 * 
+	 * @param x
+	 *            X coordinate of the pixel
+	 * @param y
+	 *            Y coordinate of the pixel
+	 * @param argb
+	 *            Packed pixel, the alpha bits are dropped unless the image is using alpha
+	 * @throws IndexOutOfBoundsException
+	 *             If the pixel is outside the image
+	 */
+	public void setPixel(int x, int y, int argb) {
+		if (x < 0 || x >= this.bmpWidth || y < 0 || y >= this.bmpHeight)
+			throw new IndexOutOfBoundsException("Pixel out of range: " + x + ", " + y);
+		this.rgbData[y * this.bmpWidth + x] = this.usingAlpha ? argb : argb & 0x00FFFFFF;
+		this.dirtyRows[y] = true;
+		return;
+	}
+
+	/**
+	 * Copies a row of pixels as packed ARGB ints into an array, a single array copy
+	 * 
+	 * @param y
+	 *            Y coordinate of the row
+	 * @param dst
+	 *            Array of at least {@link #getWidth()} ints to copy the row into
+	 * @throws IndexOutOfBoundsException
+	 *             If the row is outside the image or the array is too short
+	 */
+	public void readRow(int y, int[] dst) {
+		if (y < 0 || y >= this.bmpHeight)
+			throw new IndexOutOfBoundsException("Row out of range: " + y);
+		System.arraycopy(this.rgbData, y * this.bmpWidth, dst, 0, this.bmpWidth);
+		return;
+	}
+
+	/**
+	 * Sets a row of pixels from an array of packed ARGB ints, see {@link #setPixel(int, int, int)}
+	 * 
+	 * @param y
+	 *            Y coordinate of the row
+	 * @param src
+	 *            Array of at least {@link #getWidth()} ints holding the row
+	 * @throws IndexOutOfBoundsException
+	 *             If the row is outside the image or the array is too short
+	 */
+	public void writeRow(int y, int[] src) {
+		if (y < 0 || y >= this.bmpHeight)
+			throw new IndexOutOfBoundsException("Row out of range: " + y);
+		if (src.length < this.bmpWidth)
+			throw new IndexOutOfBoundsException("Row needs " + this.bmpWidth + " pixels");
+		int offset = y * this.bmpWidth;
+		if (this.usingAlpha) {
+			System.arraycopy(src, 0, this.rgbData, offset, this.bmpWidth);
+		} else {
+			for (int x = 0; x < this.bmpWidth; x++) {
+				this.rgbData[offset + x] = src[x] & 0x00FFFFFF;
+			}
 		}
+		this.dirtyRows[y] = true;
 		return;
 	}
 
+	/**
+	 * Copies the rows of the packed image data changed since the last recalculation into the Image Buffer, each run of neighbouring changed rows at once.
+	 * Changes are tracked by the setters, {@link #setPixelData(byte[])} and {@link PixelChannelView}, so the cost follows what changed rather than the size
+	 * of the image.
+	 */
 	public void recalcBuffer() {
-		for (int x = 0; x < this.bmpWidth; x++) {
+		if (this.imageBuffer == null) {
+			// Nothing to copy into, a buffer made later is filled from the whole image
+			if (this.dirtyRows != null)
+				Arrays.fill(this.dirtyRows, false);
+			return;
+		}
+		int y = 0;
+		while (y < this.bmpHeight) {
+			if (!this.dirtyRows[y]) {
+				y++;
+				continue;
+			}
+			int from = y;
+			while (y < this.bmpHeight && this.dirtyRows[y]) {
+				y++;
+			}
+			this.recalcBuffer(from, y);
+		}
+		return;
+	}
+
+	/**
+	 * Copies a band of rows of the packed image data into the Image Buffer whether or not they changed. Images read directly from the file have no Image
+	 * Buffer until one is asked for, and are saved straight from the packed image data.
+	 * 
+	 * @param fromRow
+	 *            First row to copy
+	 * @param toRow
+	 *            Row after the last row to copy
+	 */
+	public void recalcBuffer(int fromRow, int toRow) {
+		if (this.imageBuffer == null)
+			return;
+		fromRow = Math.max(fromRow, 0);
+		toRow = Math.min(toRow, this.bmpHeight);
+		for (int y = fromRow; y < toRow; y++) {
+			this.dirtyRows[y] = false;
+		}
+		if (this.writeRaster(fromRow, toRow))
+			return;
+		int mask = this.usingAlpha ? 0xFFFFFFFF : 0x00FFFFFF;
+		int index = fromRow * this.bmpWidth;
+		for (int y = fromRow; y < toRow; y++) {
+			for (int x = 0; x < this.bmpWidth; x++) {
+				this.imageBuffer.setRGB(x, y, this.rgbData[index] & mask);
+				index++;
+			}
+		}
+		return;
+	}
+
+	/**
+	 * Copies the whole Image Buffer back into the packed image data, picking up any changes made to the Image Buffer directly
+	 */
+	private void readBuffer() {
+		if (this.readRaster())
+			return;
+		int mask = this.usingAlpha ? 0xFFFFFFFF : 0x00FFFFFF;
+		int index = 0;
+		for (int y = 0; y < this.bmpHeight; y++) {
+			for (int x = 0; x < this.bmpWidth; x++) {
+				this.rgbData[index] = this.imageBuffer.getRGB(x, y) & mask;
+				index++;
+			}
+		}
+		return;
+	}
+
+	/**
+	 * Copies the Image Buffer into the packed image data by reading its backing data buffer directly. Only the common BMP layouts (TYPE_3BYTE_BGR, TYPE_INT_RGB
+	 * and TYPE_INT_ARGB) are supported, anything else is left to the per pixel getRGB path.
+	 * 
+	 * @return True if the image data was read, false if the layout is not supported
+	 */
+	private boolean readRaster() {
+		if (!this.hasPlainRaster())
+			return false;
+		WritableRaster raster = this.imageBuffer.getRaster();
+		int mask = this.usingAlpha ? 0xFFFFFFFF : 0x00FFFFFF;
+		int index = 0;
+		switch (this.imageBuffer.getType()) {
+		case BufferedImage.TYPE_3BYTE_BGR: {
+			byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
 			for (int y = 0; y < this.bmpHeight; y++) {
-				int a = 0;
-				if (this.usingAlpha)
-					a = (this.rgbData[y][x][RGB_ALPHA] << 24) & 0xFF000000;
-				int r = (this.rgbData[y][x][RGB_RED] << 16) & 0x00FF0000;
-				int g = (this.rgbData[y][x][RGB_GREEN] << 8) & 0x0000FF00;
-				int b = this.rgbData[y][x][RGB_BLUE] & 0x000000FF;
-				this.imageBuffer.setRGB(x, y, 0x00000000 | a | r | g | b);
+				int offset = y * stride;
+				for (int x = 0; x < this.bmpWidth; x++) {
+					int b = bytes[offset] & 0x000000FF;
+					int g = (bytes[offset + 1] << 8) & 0x0000FF00;
+					int r = (bytes[offset + 2] << 16) & 0x00FF0000;
+					this.rgbData[index] = (0xFF000000 | r | g | b) & mask;
+					offset += 3;
+					index++;
+				}
+			}
+			return true;
+		}
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB: {
+			int[] ints = ((DataBufferInt) raster.getDataBuffer()).getData();
+			int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			int opaque = this.imageBuffer.getType() == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0x00000000;
+			for (int y = 0; y < this.bmpHeight; y++) {
+				int offset = y * stride;
+				for (int x = 0; x < this.bmpWidth; x++) {
+					this.rgbData[index] = (ints[offset + x] | opaque) & mask;
+					index++;
+				}
 			}
+			return true;
+		}
+		default:
+			return false;
 		}
+	}
+
+	/**
+	 * Copies a band of rows of the packed image data into the Image Buffer by writing its backing data buffer directly. Supports the same layouts as
+	 * {@link #readRaster()}.
+	 * 
+	 * @param fromRow
+	 *            First row to copy
+	 * @param toRow
+	 *            Row after the last row to copy
+	 * @return True if the image data was written, false if the layout is not supported
+	 */
+	private boolean writeRaster(int fromRow, int toRow) {
+		if (!this.hasPlainRaster())
+			return false;
+		WritableRaster raster = this.imageBuffer.getRaster();
+		int index = fromRow * this.bmpWidth;
+		switch (this.imageBuffer.getType()) {
+		case BufferedImage.TYPE_3BYTE_BGR: {
+			byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+			for (int y = fromRow; y < toRow; y++) {
+				int offset = y * stride;
+				for (int x = 0; x < this.bmpWidth; x++) {
+					int argb = this.rgbData[index];
+					bytes[offset] = (byte) argb;
+					bytes[offset + 1] = (byte) (argb >> 8);
+					bytes[offset + 2] = (byte) (argb >> 16);
+					offset += 3;
+					index++;
+				}
+			}
+			return true;
+		}
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB: {
+			int[] ints = ((DataBufferInt) raster.getDataBuffer()).getData();
+			int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			int mask = this.usingAlpha && this.imageBuffer.getType() == BufferedImage.TYPE_INT_ARGB ? 0xFFFFFFFF : 0x00FFFFFF;
+			for (int y = fromRow; y < toRow; y++) {
+				int offset = y * stride;
+				for (int x = 0; x < this.bmpWidth; x++) {
+					ints[offset + x] = this.rgbData[index] & mask;
+					index++;
+				}
+			}
+			return true;
+		}
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Decides whether the raster of the Image Buffer starts at the beginning of a single bank data buffer, which the direct raster paths rely on
+	 * 
+	 * @return True if the raster can be accessed directly
+	 */
+	private boolean hasPlainRaster() {
+		WritableRaster raster = this.imageBuffer.getRaster();
+		DataBuffer buffer = raster.getDataBuffer();
+		return raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0 && buffer.getNumBanks() == 1 && buffer.getOffset() == 0;
+	}
+
+	/**
+	 * Gets one color channel of the specified pixel from the packed image data
+	 * 
+	 * @param x
+	 *            X coordinate of the pixel
+	 * @param y
+	 *            Y coordinate of the pixel
+	 * @param channel
+	 *            Channel to get, one of RGB_ALPHA, RGB_RED, RGB_GREEN or RGB_BLUE
+	 * 
+	 * @return Byte value of the channel
+	 * @throws PixelException
+	 */
+	private byte getChannel(int x, int y, int channel) throws PixelException {
+		return (byte) (this.rgbData[this.pixelIndex(x, y)] >> channelShift(channel));
+	}
+
+	/**
+	 * Sets one color channel of the specified pixel in the packed image data
+	 * 
+	 * @param x
+	 *            X coordinate of the pixel
+	 * @param y
+	 *            Y coordinate of the pixel
+	 * @param channel
+	 *            Channel to set, one of RGB_ALPHA, RGB_RED, RGB_GREEN or RGB_BLUE
+	 * @param value
+	 *            Byte value to set
+	 * 
+	 * @throws PixelException
+	 */
+	private void setChannel(int x, int y, int channel, byte value) throws PixelException {
+		int index = this.pixelIndex(x, y);
+		int shift = channelShift(channel);
+		this.rgbData[index] = (this.rgbData[index] & ~(0xFF << shift)) | ((value & 0xFF) << shift);
+		this.dirtyRows[y] = true;
 		return;
 	}
 
+	/**
+	 * Gets the index of the specified pixel in the packed image data
+	 * 
+	 * @param x
+	 *            X coordinate of the pixel
+	 * @param y
+	 *            Y coordinate of the pixel
+	 * 
+	 * @return Index of the pixel
+	 * @throws PixelException
+	 */
+	private int pixelIndex(int x, int y) throws PixelException {
+		if (this.rgbData == null || x < 0 || x >= this.bmpWidth || y < 0 || y >= this.bmpHeight)
+			throw new PixelException();
+		return y * this.bmpWidth + x;
+	}
+
+	/**
+	 * Gets the bit shift of a color channel within a packed ARGB pixel
+	 * 
+	 * @param channel
+	 *            Channel, one of RGB_ALPHA, RGB_RED, RGB_GREEN or RGB_BLUE
+	 * @return Shift of the channel
+	 */
+	private static int channelShift(int channel) {
+		return (RGB_BLUE - channel) * 8;
+	}
+
+	/**
+	 * Gets the packed image data itself rather than a copy, for views that read and write pixels in place
+	 * 
+	 * @return Packed ARGB pixels in row-major order, null if no image is loaded
+	 */
+	int[] getRgbData() {
+		return this.rgbData;
+	}
+
+	/**
+	 * Marks a row of the packed image data as changed, for views that write pixels in place
+	 * 
+	 * @param y
+	 *            Y coordinate of the row
+	 */
+	void markDirty(int y) {
+		this.dirtyRows[y] = true;
+		return;
+	}
+
+	/**
+	 * Decides whether any rows changed since the last recalculation
+	 * 
+	 * @return True if {@link #recalcBuffer()} has rows to copy
+	 */
+	public boolean isDirty() {
+		if (this.dirtyRows == null)
+			return false;
+		for (boolean dirty : this.dirtyRows) {
+			if (dirty)
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Gets the height of the BMP image
 	 * 
@@ -415,12 +959,17 @@ public class BMPLoader {
 	}
 
 	/**
-	 * Gets the Image Buffer of the BMP image
+	 * Gets the Image Buffer of the BMP image. Images that were read directly from the file get their Image Buffer built on first use.
 	 * 
 	 * @return BufferedImage of the BMP image
 	 * @throws ObjectException
 	 */
 	public BufferedImage getImageBuffer() throws ObjectException {
+		if (this.imageBuffer == null && this.rgbData != null) {
+			int type = this.usingAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_3BYTE_BGR;
+			this.imageBuffer = new BufferedImage(this.bmpWidth, this.bmpHeight, type);
+			this.recalcBuffer(0, this.bmpHeight);
+		}
 		if (this.imageBuffer == null)
 			throw new ObjectException("Image is null");
 		return this.imageBuffer;
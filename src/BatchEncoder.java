@@ -0,0 +1,204 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes payloads into many carriers in one run, driven by a manifest file. Each line of the manifest holds "carrier, payload, output, maxBits" separated by
+ * tabs, so paths may contain commas and spaces; blank lines and lines starting with # are skipped. Each worker thread reuses one modifier and one loader for
+ * all of its entries.
+ */
+public class BatchEncoder {
+
+	/**
+	 * Modifier reused by each worker thread
+	 */
+	private final ThreadLocal<BinaryModifier> modifiers = new ThreadLocal<BinaryModifier>() {
+		@Override
+		protected BinaryModifier initialValue() {
+			return new BinaryModifier();
+		}
+	};
+
+	/**
+	 * Loader reused by each worker thread, pointed at the next carrier with setFile, which discards the previous image
+	 */
+	private final ThreadLocal<BMPLoader> loaders = new ThreadLocal<BMPLoader>() {
+		@Override
+		protected BMPLoader initialValue() {
+			return new BMPLoader();
+		}
+	};
+
+	/**
+	 * Number of worker threads
+	 */
+	private int threads;
+
+	private final AtomicLong encoded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong payloadBytes = new AtomicLong();
+	private final AtomicLong carrierBytes = new AtomicLong();
+
+	/**
+	 * Constructs a BatchEncoder with one worker per available processor
+	 */
+	public BatchEncoder() {
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Constructs a BatchEncoder with a specified number of workers
+	 *
+	 * @param threads
+	 *            Number of worker threads
+	 * @throws BinaryException
+	 */
+	public BatchEncoder(int threads) throws BinaryException {
+		if (threads < 1)
+			throw new BinaryException("Must use at least 1 thread");
+		this.threads = threads;
+	}
+
+	/**
+	 * Encodes every entry of a manifest and prints a summary once all are done. Entries that fail are reported and skipped.
+	 *
+	 * @param manifest
+	 *            Name of the manifest file
+	 * @throws IOException
+	 *             If the manifest could not be read
+	 * @throws FileException
+	 *             If a line of the manifest is malformed
+	 * @throws InterruptedException
+	 */
+	public void run(String manifest) throws IOException, FileException, InterruptedException {
+		List<String[]> jobs = readManifest(manifest);
+
+		// Bounded queue, the reading thread runs jobs itself when the workers fall behind
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+				this.threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		long start = System.nanoTime();
+		for (final String[] job : jobs) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					encode(job);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		// The pool threads are gone, but the calling thread may have run jobs itself and would keep its last image
+		this.loaders.remove();
+		this.modifiers.remove();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		double payloadMB = this.payloadBytes.get() / (1024.0 * 1024.0);
+		double carrierMB = this.carrierBytes.get() / (1024.0 * 1024.0);
+		System.out.println(String.format("Encoded %d of %d carriers (%d failed) in %.2f s on %d threads", this.encoded.get(), jobs.size(), this.failed.get(),
+				seconds, this.threads));
+		System.out.println(String.format("%.1f carriers/s, payload %.2f MB (%.2f MB/s), carrier %.2f MB (%.2f MB/s)", this.encoded.get() / seconds, payloadMB,
+				payloadMB / seconds, carrierMB, carrierMB / seconds));
+		return;
+	}
+
+	/**
+	 * Encodes a single manifest entry with the current worker's modifier and loader. Loading the carrier discards the worker's previous image even when the
+	 * load fails, so the entry counts as failed if the carrier cannot be loaded or the output cannot be saved.
+	 *
+	 * @param job
+	 *            Carrier, payload, output and maxBits of the entry
+	 */
+	private void encode(String[] job) {
+		try {
+			BinaryModifier bm = this.modifiers.get();
+			bm.setMaxBits(Integer.parseInt(job[3]));
+
+			// Skip carriers that are too small before any pixels are loaded
+			File payload = new File(job[1]);
+			if (!new CapacityPlanner(job[0]).fits(payload.length(), bm.getMaxBits()))
+				throw new BinaryException("Payload of " + payload.length() + " bytes does not fit in " + job[0] + " at maxBits " + bm.getMaxBits());
+			BMPLoader loader = this.loaders.get();
+			loader.setFile(job[0]);
+			loader.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
+
+			PixelChannelView pixels = new PixelChannelView(loader);
+			InputStream in = new FileInputStream(payload);
+			try {
+				bm.encode(in, payload.length(), pixels, BinaryModifier.CODEC_NONE, BMPLoader.PIXEL_ORDER_ROWS);
+			} finally {
+				in.close();
+			}
+			pixels.flush();
+			loader.saveToFile(job[2]);
+
+			this.encoded.incrementAndGet();
+			this.payloadBytes.addAndGet(payload.length());
+			this.carrierBytes.addAndGet(pixels.size());
+		} catch (Exception e) {
+			this.failed.incrementAndGet();
+			System.err.println("Failed to encode " + job[1] + " into " + job[0] + ": " + e);
+		}
+		return;
+	}
+
+	/**
+	 * Reads the entries of a manifest file
+	 *
+	 * @param manifest
+	 *            Name of the manifest file
+	 * @return Entries of carrier, payload, output and maxBits
+	 * @throws IOException
+	 * @throws FileException
+	 *             If a line does not have four tab separated fields
+	 */
+	private static List<String[]> readManifest(String manifest) throws IOException, FileException {
+		List<String[]> jobs = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(manifest));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] job = line.split("\t", -1);
+				if (job.length != 4)
+					throw new FileException("Manifest line " + lineNumber + " needs carrier, payload, output and maxBits");
+				for (int x = 0; x < job.length; x++) {
+					job[x] = job[x].trim();
+				}
+				jobs.add(job);
+			}
+		} finally {
+			reader.close();
+		}
+		return jobs;
+	}
+}
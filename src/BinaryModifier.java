@@ -17,12 +17,86 @@ You should have received a copy of the GNU General Public License
 along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
 */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
 public class BinaryModifier {
+	/**
+	 * Number of payload bytes read from or written to a stream at a time
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Number of message bytes gathered before they are encoded or decoded in parallel stripes by the streaming methods
+	 */
+	private static final int PARALLEL_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Default number of message bytes below which parallel encoding and decoding stops splitting the work
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 256 * 1024;
+
+	/**
+	 * Payload stored as is
+	 */
+	public static final int CODEC_NONE = 0;
+	/**
+	 * Payload compressed with Deflate
+	 */
+	public static final int CODEC_DEFLATE = 1;
+	/**
+	 * Payload compressed with the fast {@link LZCodec}
+	 */
+	public static final int CODEC_LZ = 2;
+
+	/**
+	 * Set in the length header when a format byte follows it, a plain length never has its top bit set
+	 */
+	private static final int EXTENDED_HEADER = 0x80000000;
+	/**
+	 * Set in an extended length header when the carrier was written in BMPLoader.PIXEL_ORDER_ROWS. This and the extended bit are the first two message bits,
+	 * which always fall in the first pixel, so they read the same whichever pixel order the carrier is in.
+	 */
+	private static final int ROW_ORDER = 0x40000000;
+	/**
+	 * Bits of an extended length header holding the length
+	 */
+	private static final int EXTENDED_LENGTH_MASK = 0x3FFFFFFF;
+	/**
+	 * Bits of the format byte holding the codec
+	 */
+	private static final int CODEC_MASK = 0x0F;
+	/**
+	 * Size of a length header followed by a format byte
+	 */
+	private static final int EXTENDED_HEADER_SIZE = 5;
+
 	/**
 	 * Maximum bits to change per byte
 	 */
 	private int maxBits = 0;
 
+	/**
+	 * Number of message bytes below which parallel encoding and decoding stops splitting the work
+	 */
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	/**
+	 * Most bytes a compressed message may decompress to when decoded into an array
+	 */
+	private int decompressLimit = EXTENDED_LENGTH_MASK;
+
 	/**
 	 * Default Constructor
 	 */
@@ -70,6 +144,45 @@ public class BinaryModifier {
 		return this.maxBits;
 	}
 
+	/**
+	 * Sets the number of message bytes below which parallel encoding and decoding stops splitting the work into more tasks
+	 * 
+	 * @param parallelThreshold
+	 *            Message bytes handled by a single task
+	 * @throws BinaryException
+	 */
+	public void setParallelThreshold(int parallelThreshold) throws BinaryException {
+		if (parallelThreshold < 1)
+			throw new BinaryException("Parallel threshold must be at least 1 byte");
+		this.parallelThreshold = parallelThreshold;
+		return;
+	}
+
+	/**
+	 * Sets the most bytes a compressed message may decompress to when it is decoded into an array by {@link #decodeData(Carrier)} or
+	 * {@link #decodeDataParallel(Carrier)}, so a crafted carrier cannot exhaust memory. {@link #decode(Carrier, OutputStream)} streams its output and has no
+	 * limit.
+	 * 
+	 * @param decompressLimit
+	 *            Most decompressed bytes, by default the longest message a header can record
+	 * @throws BinaryException
+	 */
+	public void setDecompressLimit(int decompressLimit) throws BinaryException {
+		if (decompressLimit < 0)
+			throw new BinaryException("Decompress limit must not be negative");
+		this.decompressLimit = decompressLimit;
+		return;
+	}
+
+	/**
+	 * Gets the number of message bytes below which parallel encoding and decoding stops splitting the work into more tasks
+	 * 
+	 * @return Message bytes handled by a single task
+	 */
+	public int getParallelThreshold() {
+		return this.parallelThreshold;
+	}
+
 	/**
 	 * Encodes a message in a byte array
 	 * 
@@ -80,15 +193,196 @@ public class BinaryModifier {
 	 * @return New data with message encoded in it
 	 */
 	public byte[] encodeMessage(byte[] data, byte[] message) {
-		byte[] encoded = data;
-		boolean[] messageBits = byteArrToBoolArr(message);
-		int index = 0;
-		for (int x = 0; x < messageBits.length; x++) {
-			encoded[index] = messageBits[x] ? setBit(encoded[index], x % this.maxBits) : unsetBit(encoded[index], x % this.maxBits);
-			if ((x + 1) % this.maxBits == 0)
-				index++;
+		this.encodeMessage(new ByteArrayCarrier(data), message);
+		return data;
+	}
+
+	/**
+	 * Encodes a message in a carrier in place, only the carrier bytes the message covers are read and written
+	 * 
+	 * @param carrier
+	 *            Carrier to encode message in
+	 * @param message
+	 *            Message to encode
+	 */
+	public void encodeMessage(Carrier carrier, byte[] message) {
+		BitWriter writer = new BitWriter(carrier, this.maxBits, 0);
+		writer.write(message, 0, message.length);
+		writer.flush();
+		return;
+	}
+
+	/**
+	 * Encodes a message in a carrier in place like {@link #encodeMessage(Carrier, byte[])}, splitting the message into stripes that are encoded in parallel on
+	 * the common ForkJoinPool. Stripes never share a unit of the carrier, see {@link Carrier#unitSize()}.
+	 * 
+	 * @param carrier
+	 *            Carrier to encode message in
+	 * @param message
+	 *            Message to encode
+	 */
+	public void encodeMessageParallel(Carrier carrier, byte[] message) {
+		ForkJoinPool.commonPool().invoke(
+				new EncodeTask(carrier, this.maxBits, stripeUnit(this.maxBits, carrier.unitSize()), this.parallelThreshold, message, 0, 0, message.length));
+		return;
+	}
+
+	/**
+	 * Encodes a length header followed by a payload read from a stream in a carrier. The payload is read a chunk at a time and encoded in parallel stripes
+	 * once enough of it has been gathered, see {@link #setParallelThreshold(int)}, so memory use does not depend on its size.
+	 * 
+	 * @param payload
+	 *            Stream to read the payload from
+	 * @param length
+	 *            Number of payload bytes to read from the stream
+	 * @param carrier
+	 *            Carrier to encode payload in
+	 * @throws IOException
+	 *             If the stream could not be read or ended before length bytes
+	 * @throws BinaryException
+	 *             If the payload and header do not fit in the carrier
+	 */
+	public void encode(InputStream payload, long length, Carrier carrier) throws IOException, BinaryException {
+		if (length < 0 || length > Integer.MAX_VALUE)
+			throw new BinaryException("Payload length " + length + " cannot be stored in the header");
+		long capacity = carrier.size() * this.maxBits / 8;
+		if (length + 4 > capacity)
+			throw new BinaryException("Payload of " + length + " bytes does not fit in a carrier holding " + Math.max(capacity - 4, 0) + " bytes");
+
+		MessageOutputStream writer = new MessageOutputStream(carrier, this.maxBits, this.parallelThreshold, 0, capacity, length + 4);
+		byte[] header = new byte[4];
+		header[0] = (byte) (length >>> 24);
+		header[1] = (byte) (length >>> 16);
+		header[2] = (byte) (length >>> 8);
+		header[3] = (byte) (length >>> 0);
+		writer.write(header, 0, header.length);
+
+		byte[] buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+		long remaining = length;
+		while (remaining > 0) {
+			int numRead = payload.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (numRead < 0)
+				throw new EOFException("Payload ended " + remaining + " bytes early");
+			writer.write(buffer, 0, numRead);
+			remaining -= numRead;
 		}
-		return encoded;
+		writer.flush();
+		return;
+	}
+
+	/**
+	 * Encodes a payload read from a stream into a carrier, compressing it first with the specified codec. The payload is compressed straight into the
+	 * carrier after a 5-byte header, which is filled in once the compressed length is known, the top bit of its length marking the extra format byte that
+	 * records the codec. With CODEC_NONE the message is written exactly as {@link #encode(InputStream, long, Carrier)} writes it.
+	 * 
+	 * @param payload
+	 *            Stream to read payload from
+	 * @param length
+	 *            Number of bytes to read from the stream
+	 * @param carrier
+	 *            Carrier to encode payload in
+	 * @param codec
+	 *            CODEC_NONE, CODEC_DEFLATE or CODEC_LZ
+	 * @throws IOException
+	 *             If the stream could not be read or ended before length bytes
+	 * @throws BinaryException
+	 *             If the codec is unknown or the compressed payload and header do not fit in the carrier
+	 */
+	public void encode(InputStream payload, long length, Carrier carrier, int codec) throws IOException, BinaryException {
+		this.encode(payload, length, carrier, codec, BMPLoader.PIXEL_ORDER_COLUMNS);
+		return;
+	}
+
+	/**
+	 * Encodes a payload read from a stream into a carrier like {@link #encode(InputStream, long, Carrier, int)}, recording the pixel order the carrier was
+	 * laid out in so a decoder can tell, see {@link #readPixelOrder(Carrier)}. Carriers in row order always get the 5-byte header. A payload that does not fit
+	 * is refused before the carrier is changed, a compressed payload being compressed into memory first, at most as many bytes as the carrier holds.
+	 * 
+	 * @param payload
+	 *            Stream to read payload from
+	 * @param length
+	 *            Number of bytes to read from the stream
+	 * @param carrier
+	 *            Carrier to encode payload in
+	 * @param codec
+	 *            CODEC_NONE, CODEC_DEFLATE or CODEC_LZ
+	 * @param pixelOrder
+	 *            BMPLoader.PIXEL_ORDER_COLUMNS or BMPLoader.PIXEL_ORDER_ROWS, the order of the pixels in the carrier
+	 * @throws IOException
+	 *             If the stream could not be read or ended before length bytes
+	 * @throws BinaryException
+	 *             If the codec or pixel order is unknown or the payload and header do not fit in the carrier
+	 */
+	public void encode(InputStream payload, long length, Carrier carrier, int codec, int pixelOrder) throws IOException, BinaryException {
+		if (pixelOrder != BMPLoader.PIXEL_ORDER_COLUMNS && pixelOrder != BMPLoader.PIXEL_ORDER_ROWS)
+			throw new BinaryException("Unknown pixel order " + pixelOrder);
+		if (codec == CODEC_NONE && pixelOrder == BMPLoader.PIXEL_ORDER_COLUMNS) {
+			this.encode(payload, length, carrier);
+			return;
+		}
+		if (codec < 0 || codec > CODEC_LZ)
+			throw new BinaryException("Unknown codec " + codec);
+		long capacity = carrier.size() * this.maxBits / 8;
+		if (capacity < EXTENDED_HEADER_SIZE)
+			throw new BinaryException("Carrier is too small to hold a header");
+		if (length < 0)
+			throw new BinaryException("Payload length " + length + " is negative");
+		long room = Math.min(capacity - EXTENDED_HEADER_SIZE, EXTENDED_LENGTH_MASK);
+		// An uncompressed payload is stored as is, so check it fits before any bit of the carrier changes
+		if (codec == CODEC_NONE && length > room)
+			throw new BinaryException("Payload of " + length + " bytes does not fit in a carrier holding " + room + " bytes");
+
+		// Start writing right after the header, which may end part way through a carrier byte. A compressed payload is first compressed into a buffer no
+		// larger than the carrier holds, so the carrier is only written once the payload is known to fit.
+		MessageOutputStream message = null;
+		BoundedOutputStream compressed = null;
+		Deflater deflater = null;
+		try {
+			OutputStream out;
+			if (codec == CODEC_NONE) {
+				message = new MessageOutputStream(carrier, this.maxBits, this.parallelThreshold, EXTENDED_HEADER_SIZE, room, length);
+				out = message;
+			} else {
+				compressed = new BoundedOutputStream(room, length);
+				if (codec == CODEC_DEFLATE) {
+					deflater = new Deflater();
+					out = new DeflaterOutputStream(compressed, deflater, CHUNK_SIZE);
+				} else {
+					out = new LZCodec.CompressingOutputStream(compressed);
+				}
+			}
+			byte[] buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+			long remaining = length;
+			while (remaining > 0) {
+				int numRead = payload.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (numRead < 0)
+					throw new EOFException("Payload ended " + remaining + " bytes early");
+				out.write(buffer, 0, numRead);
+				remaining -= numRead;
+			}
+			if (out instanceof DeflaterOutputStream)
+				((DeflaterOutputStream) out).finish();
+			else if (out instanceof LZCodec.CompressingOutputStream)
+				((LZCodec.CompressingOutputStream) out).finish();
+		} catch (CapacityException e) {
+			throw new BinaryException("Compressed payload does not fit in a carrier holding " + room + " bytes");
+		} finally {
+			if (deflater != null)
+				deflater.end();
+		}
+		if (compressed != null) {
+			message = new MessageOutputStream(carrier, this.maxBits, this.parallelThreshold, EXTENDED_HEADER_SIZE, room, compressed.size());
+			compressed.writeTo(message);
+		}
+		message.flush();
+
+		BitWriter writer = new BitWriter(carrier, this.maxBits, 0);
+		int word = EXTENDED_HEADER | (int) message.getCount();
+		if (pixelOrder == BMPLoader.PIXEL_ORDER_ROWS)
+			word |= ROW_ORDER;
+		writer.write(new byte[] { (byte) (word >>> 24), (byte) (word >>> 16), (byte) (word >>> 8), (byte) word, (byte) codec }, 0, EXTENDED_HEADER_SIZE);
+		writer.flush();
+		return;
 	}
 
 	/**
@@ -99,14 +393,209 @@ public class BinaryModifier {
 	 * @return Decoded message
 	 */
 	public byte[] decodeMessage(byte[] data) {
-		boolean[] messageBits = new boolean[data.length * this.maxBits];
-		int index = 0;
-		for (int x = 0; x < messageBits.length; x++) {
-			messageBits[x] = getBit(data[index], x % this.maxBits);
-			if ((x + 1) % this.maxBits == 0)
-				index++;
+		byte[] message = new byte[(int) ((long) data.length * this.maxBits / 8)];
+		new BitReader(new ByteArrayCarrier(data), this.maxBits, 0).read(message, 0, message.length);
+		return message;
+	}
+
+	/**
+	 * Decodes the message data from a byte array, see {@link #decodeData(Carrier)}
+	 * 
+	 * @param data
+	 *            Data with message and header encoded in it
+	 * @return Message data without its header
+	 * @throws BinaryException
+	 */
+	public byte[] decodeData(byte[] data) throws BinaryException {
+		return this.decodeData(new ByteArrayCarrier(data));
+	}
+
+	/**
+	 * Decodes the message data from a carrier. The length header is decoded first and then only the carrier bytes holding the message are read, so decoding
+	 * takes time proportional to the message rather than the carrier. A compressed message is decompressed into the returned array, up to the limit set by
+	 * {@link #setDecompressLimit(int)}; use {@link #decode(Carrier, OutputStream)} to decompress as a stream.
+	 * 
+	 * @param carrier
+	 *            Carrier with message and header encoded in it
+	 * @return Message data without its header
+	 * @throws BinaryException
+	 *             If the header does not describe a message that fits in the carrier, or a compressed message is corrupt or decompresses past the limit
+	 */
+	public byte[] decodeData(Carrier carrier) throws BinaryException {
+		BitReader reader = new BitReader(carrier, this.maxBits, 0);
+		MessageHeader header = this.readHeader(reader, carrier);
+		if (header.codec != CODEC_NONE)
+			return this.decompress(new MessageInputStream(carrier, this.maxBits, Integer.MAX_VALUE, header.size, header.length, CHUNK_SIZE), header.codec);
+		byte[] message = new byte[header.length];
+		reader.read(message, 0, header.length);
+		return message;
+	}
+
+	/**
+	 * Decodes the message data from a carrier like {@link #decodeData(Carrier)}, splitting the message into stripes that are decoded in parallel on the common
+	 * ForkJoinPool
+	 * 
+	 * @param carrier
+	 *            Carrier with message and header encoded in it
+	 * @return Message data without its header
+	 * @throws BinaryException
+	 *             If the header does not describe a message that fits in the carrier, or a compressed message is corrupt or decompresses past the limit
+	 */
+	public byte[] decodeDataParallel(Carrier carrier) throws BinaryException {
+		MessageHeader header = this.readHeader(new BitReader(carrier, this.maxBits, 0), carrier);
+		byte[] message = new byte[header.length];
+		ForkJoinPool.commonPool().invoke(
+				new DecodeTask(carrier, this.maxBits, stripeUnit(this.maxBits, carrier.unitSize()), this.parallelThreshold, message, header.size, header.size,
+						header.size + header.length));
+		if (header.codec != CODEC_NONE)
+			return this.decompress(new ByteArrayInputStream(message), header.codec);
+		return message;
+	}
+
+	/**
+	 * Decodes the message data from a carrier to a stream. The length header is decoded first, then the message is decoded in parallel stripes a chunk at a
+	 * time, decompressed if the header names a codec, and written out, so memory use does not depend on the size of the message.
+	 * 
+	 * @param carrier
+	 *            Carrier with message and header encoded in it
+	 * @param out
+	 *            Stream to write the message data to
+	 * @return Number of bytes written
+	 * @throws IOException
+	 *             If the stream could not be written
+	 * @throws BinaryException
+	 *             If the header does not describe a message that fits in the carrier, or a compressed message is corrupt
+	 */
+	public long decode(Carrier carrier, OutputStream out) throws IOException, BinaryException {
+		MessageHeader header = this.readHeader(new BitReader(carrier, this.maxBits, 0), carrier);
+		InputStream in = new MessageInputStream(carrier, this.maxBits, this.parallelThreshold, header.size, header.length, header.codec == CODEC_NONE ? header.length
+				: PARALLEL_CHUNK_SIZE);
+		Inflater inflater = null;
+		if (header.codec == CODEC_DEFLATE) {
+			inflater = new Inflater();
+			in = new InflaterInputStream(in, inflater, CHUNK_SIZE);
+		} else if (header.codec == CODEC_LZ) {
+			in = new LZCodec.DecompressingInputStream(in);
+		}
+		try {
+			byte[] buffer = new byte[header.codec == CODEC_NONE ? Math.min(CHUNK_SIZE, Math.max(header.length, 1)) : CHUNK_SIZE];
+			long total = 0;
+			int n;
+			while ((n = this.readCompressed(in, buffer)) != -1) {
+				out.write(buffer, 0, n);
+				total += n;
+			}
+			return total;
+		} finally {
+			if (inflater != null)
+				inflater.end();
+		}
+	}
+
+	/**
+	 * Reads from a possibly decompressing stream, reporting corrupt compressed data as a BinaryException
+	 */
+	private int readCompressed(InputStream in, byte[] buffer) throws BinaryException {
+		try {
+			return in.read(buffer, 0, buffer.length);
+		} catch (IOException e) {
+			throw new BinaryException("Compressed message is corrupt", e);
+		}
+	}
+
+	/**
+	 * Decompresses a whole message into an array, refusing to decompress more than the decompress limit
+	 * 
+	 * @param in
+	 *            Stream of compressed message bytes
+	 * @param codec
+	 *            Codec the message was compressed with
+	 * @return Decompressed message
+	 * @throws BinaryException
+	 *             If the compressed message is corrupt or decompresses past the limit
+	 */
+	private byte[] decompress(InputStream in, int codec) throws BinaryException {
+		Inflater inflater = null;
+		try {
+			if (codec == CODEC_DEFLATE) {
+				inflater = new Inflater();
+				in = new InflaterInputStream(in, inflater, CHUNK_SIZE);
+			} else {
+				in = new LZCodec.DecompressingInputStream(in);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				if (out.size() + (long) n > this.decompressLimit)
+					throw new BinaryException("Compressed message decompresses to more than " + this.decompressLimit + " bytes");
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new BinaryException("Compressed message is corrupt", e);
+		} finally {
+			if (inflater != null)
+				inflater.end();
 		}
-		return boolArrToByteArr(messageBits);
+	}
+
+	/**
+	 * Reads which pixel order the message in a carrier was written in. The flag lies in the first pixel, so the carrier may be in either order. Carriers
+	 * written before row order was added always read as column order.
+	 * 
+	 * @param carrier
+	 *            Carrier with message and header encoded in it
+	 * @return BMPLoader.PIXEL_ORDER_COLUMNS or BMPLoader.PIXEL_ORDER_ROWS
+	 * @throws BinaryException
+	 *             If the carrier is too small to hold a header
+	 */
+	public int readPixelOrder(Carrier carrier) throws BinaryException {
+		if (carrier.size() * this.maxBits / 8 < 4)
+			throw new BinaryException("Carrier is too small to hold a header");
+		// Only the first two bits are used, they come from the first two carrier bytes at most
+		int bit0 = carrier.get(0) & 1;
+		int bit1 = this.maxBits > 1 ? (carrier.get(0) >> 1) & 1 : carrier.get(1) & 1;
+		if (bit0 == 1 && bit1 == 1)
+			return BMPLoader.PIXEL_ORDER_ROWS;
+		return BMPLoader.PIXEL_ORDER_COLUMNS;
+	}
+
+	/**
+	 * Decodes the length header, and the format byte following it if the top bit of the length is set, and checks that a message of that length fits in the
+	 * carrier
+	 * 
+	 * @param reader
+	 *            Reader positioned at the start of the carrier
+	 * @param carrier
+	 *            Carrier being read
+	 * @return Header of the message, the reader being left at the first message byte
+	 * @throws BinaryException
+	 *             If the message does not fit in the carrier or names an unknown codec
+	 */
+	private MessageHeader readHeader(BitReader reader, Carrier carrier) throws BinaryException {
+		long capacity = carrier.size() * this.maxBits / 8;
+		if (capacity < 4)
+			throw new BinaryException("Carrier is too small to hold a header");
+		byte[] header = new byte[EXTENDED_HEADER_SIZE];
+		reader.read(header, 0, 4);
+		int word = getHeader(header);
+		int length = word;
+		int size = 4;
+		int format = 0;
+		if ((word & EXTENDED_HEADER) != 0) {
+			if (capacity < EXTENDED_HEADER_SIZE)
+				throw new BinaryException("Carrier is too small to hold a header");
+			reader.read(header, 4, 1);
+			length = word & EXTENDED_LENGTH_MASK;
+			size = EXTENDED_HEADER_SIZE;
+			format = header[4] & 0xFF;
+			if ((format & CODEC_MASK) > CODEC_LZ)
+				throw new BinaryException("Unknown codec " + (format & CODEC_MASK) + ", wrong maxBits or no message encoded");
+		}
+		if (length > capacity - size)
+			throw new BinaryException("Header length " + length + " does not fit in the carrier, wrong maxBits or no message encoded");
+		return new MessageHeader(length, size, format & CODEC_MASK);
 	}
 
 	/**
@@ -411,4 +900,522 @@ public class BinaryModifier {
 		}
 		return b;
 	}
+
+	/**
+	 * Bit reversed value of every byte, message bits are taken most significant bit first but stored in the carrier lowest bit first
+	 */
+	private static final byte[] REVERSED = new byte[256];
+
+	static {
+		for (int x = 0; x < REVERSED.length; x++) {
+			REVERSED[x] = (byte) (Integer.reverse(x) >>> 24);
+		}
+	}
+
+	/**
+	 * Header decoded from the start of a message
+	 */
+	private static class MessageHeader {
+		/**
+		 * Number of stored message bytes following the header
+		 */
+		final int length;
+		/**
+		 * Size of the header itself
+		 */
+		final int size;
+		/**
+		 * Codec the message bytes were compressed with
+		 */
+		final int codec;
+
+		MessageHeader(int length, int size, int codec) {
+			this.length = length;
+			this.size = size;
+			this.codec = codec;
+		}
+	}
+
+	/**
+	 * Writes message bytes into the lowest maxBits bits of consecutive carrier bytes. Message bits are gathered into a long and written a carrier byte at a
+	 * time using a mask, so no per bit arithmetic is needed.
+	 */
+	private static class BitWriter {
+
+		private final Carrier carrier;
+		private final int maxBits;
+
+		/**
+		 * Next carrier byte to write and the bit within it
+		 */
+		private long index;
+		private int bitPos = 0;
+
+		/**
+		 * Pending message bits, the next bit to write being the lowest
+		 */
+		private long bits = 0;
+		private int bitCount = 0;
+
+		/**
+		 * @param carrier
+		 *            Carrier to write to
+		 * @param maxBits
+		 *            Bits to use per carrier byte
+		 * @param index
+		 *            Carrier byte to start writing at
+		 */
+		BitWriter(Carrier carrier, int maxBits, long index) {
+			this(carrier, maxBits, index, 0);
+		}
+
+		/**
+		 * @param carrier
+		 *            Carrier to write to
+		 * @param maxBits
+		 *            Bits to use per carrier byte
+		 * @param index
+		 *            Carrier byte to start writing at
+		 * @param bitPos
+		 *            Bit within that carrier byte to start writing at, the bits below it being left alone
+		 */
+		BitWriter(Carrier carrier, int maxBits, long index, int bitPos) {
+			this.carrier = carrier;
+			this.maxBits = maxBits;
+			this.index = index;
+			this.bitPos = bitPos;
+		}
+
+		/**
+		 * Writes message bytes
+		 */
+		void write(byte[] b, int off, int len) {
+			for (int x = off; x < off + len; x++) {
+				if (this.bitCount > 56)
+					this.drain(false);
+				this.bits |= (long) (REVERSED[b[x] & 0xFF] & 0xFF) << this.bitCount;
+				this.bitCount += 8;
+			}
+			return;
+		}
+
+		/**
+		 * Writes any pending bits, the last carrier byte may only be partially written
+		 */
+		void flush() {
+			this.drain(true);
+			return;
+		}
+
+		/**
+		 * Writes pending bits to the carrier
+		 * 
+		 * @param partial
+		 *            If a carrier byte may be written with fewer than maxBits bits
+		 */
+		private void drain(boolean partial) {
+			while (this.bitCount >= this.maxBits - this.bitPos || (partial && this.bitCount > 0)) {
+				int n = Math.min(this.maxBits - this.bitPos, this.bitCount);
+				int mask = ((1 << n) - 1) << this.bitPos;
+				byte value = this.carrier.get(this.index);
+				this.carrier.set(this.index, (byte) ((value & ~mask) | (((int) this.bits << this.bitPos) & mask)));
+				this.bits >>>= n;
+				this.bitCount -= n;
+				this.bitPos += n;
+				if (this.bitPos == this.maxBits) {
+					this.bitPos = 0;
+					this.index++;
+				}
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Reads message bytes from the lowest maxBits bits of consecutive carrier bytes, gathering up to 8 carrier bytes at a time into a long
+	 */
+	private static class BitReader {
+
+		private final Carrier carrier;
+		private final int maxBits;
+		private final int mask;
+
+		/**
+		 * Next carrier byte to read
+		 */
+		private long index;
+
+		/**
+		 * Carrier bits read but not yet returned, the next bit being the lowest
+		 */
+		private long bits = 0;
+		private int bitCount = 0;
+
+		/**
+		 * @param carrier
+		 *            Carrier to read from
+		 * @param maxBits
+		 *            Bits used per carrier byte
+		 * @param index
+		 *            Carrier byte to start reading at
+		 */
+		BitReader(Carrier carrier, int maxBits, long index) {
+			this.carrier = carrier;
+			this.maxBits = maxBits;
+			this.mask = (1 << maxBits) - 1;
+			this.index = index;
+		}
+
+		/**
+		 * Reads message bytes
+		 */
+		void read(byte[] b, int off, int len) {
+			long size = this.carrier.size();
+			for (int x = off; x < off + len; x++) {
+				if (this.bitCount < 8) {
+					while (this.bitCount <= 64 - this.maxBits && this.index < size) {
+						this.bits |= (long) (this.carrier.get(this.index) & this.mask) << this.bitCount;
+						this.bitCount += this.maxBits;
+						this.index++;
+					}
+					if (this.bitCount < 8)
+						throw new ArrayIndexOutOfBoundsException("Message runs past the end of the carrier");
+				}
+				b[x] = REVERSED[(int) this.bits & 0xFF];
+				this.bits >>>= 8;
+				this.bitCount -= 8;
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Thrown by a {@link MessageOutputStream} or {@link BoundedOutputStream} when more bytes are written than the carrier can hold
+	 */
+	private static class CapacityException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		CapacityException() {
+			super("Message does not fit in the carrier");
+		}
+	}
+
+	/**
+	 * Gathers bytes in memory, refusing to hold more than a set number of bytes
+	 */
+	private static class BoundedOutputStream extends OutputStream {
+
+		private final long limit;
+		private byte[] buffer;
+		private int count = 0;
+
+		/**
+		 * @param limit
+		 *            Most bytes that may be written
+		 * @param expected
+		 *            Number of bytes expected to be written, used to size the buffer
+		 */
+		BoundedOutputStream(long limit, long expected) {
+			this.limit = limit;
+			this.buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(Math.min(expected, limit), 1))];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (this.count + (long) len > this.limit)
+				throw new CapacityException();
+			if (this.count + len > this.buffer.length)
+				this.buffer = Arrays.copyOf(this.buffer, (int) Math.min(Math.max(this.buffer.length * 2L, this.count + len), this.limit));
+			System.arraycopy(b, off, this.buffer, this.count, len);
+			this.count += len;
+		}
+
+		int size() {
+			return this.count;
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(this.buffer, 0, this.count);
+		}
+	}
+
+	/**
+	 * Writes message bytes to a carrier from a set message position, refusing to write more than a set number of bytes. Bytes are gathered and encoded in
+	 * parallel stripes a chunk at a time.
+	 */
+	private static class MessageOutputStream extends OutputStream {
+
+		private final Carrier carrier;
+		private final int maxBits;
+		private final int threshold;
+		private final long limit;
+		private final byte[] buffer;
+		private int buffered = 0;
+		/**
+		 * Message position of the first buffered byte
+		 */
+		private long position;
+		private long count = 0;
+
+		/**
+		 * @param position
+		 *            Message position of the first byte written
+		 * @param limit
+		 *            Most bytes that may be written
+		 * @param expected
+		 *            Number of bytes expected to be written, used to size the buffer
+		 */
+		MessageOutputStream(Carrier carrier, int maxBits, int threshold, long position, long limit, long expected) {
+			this.carrier = carrier;
+			this.maxBits = maxBits;
+			this.threshold = threshold;
+			this.position = position;
+			this.limit = limit;
+			this.buffer = new byte[(int) Math.min(PARALLEL_CHUNK_SIZE, Math.max(Math.min(expected, limit), 1))];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (this.count + len > this.limit)
+				throw new CapacityException();
+			this.count += len;
+			while (len > 0) {
+				if (this.buffered == this.buffer.length)
+					this.flush();
+				int n = Math.min(len, this.buffer.length - this.buffered);
+				System.arraycopy(b, off, this.buffer, this.buffered, n);
+				this.buffered += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() {
+			if (this.buffered == 0)
+				return;
+			EncodeTask task = new EncodeTask(this.carrier, this.maxBits, stripeUnit(this.maxBits, this.carrier.unitSize()), this.threshold, this.buffer,
+					this.position, this.position, this.position + this.buffered);
+			if (this.buffered <= this.threshold)
+				task.compute();
+			else
+				ForkJoinPool.commonPool().invoke(task);
+			this.position += this.buffered;
+			this.buffered = 0;
+		}
+
+		/**
+		 * Gets the number of bytes written
+		 */
+		long getCount() {
+			return this.count;
+		}
+	}
+
+	/**
+	 * Reads a set number of message bytes from a carrier from a set message position, decoding them in parallel stripes a chunk at a time
+	 */
+	private static class MessageInputStream extends InputStream {
+
+		private final Carrier carrier;
+		private final int maxBits;
+		private final int threshold;
+		private final byte[] buffer;
+		private int offset = 0;
+		private int buffered = 0;
+		/**
+		 * Message position of the next byte to decode into the buffer
+		 */
+		private long position;
+		private int remaining;
+
+		/**
+		 * @param position
+		 *            Message position of the first byte
+		 * @param length
+		 *            Number of bytes to read
+		 * @param bufferSize
+		 *            Most bytes decoded at a time
+		 */
+		MessageInputStream(Carrier carrier, int maxBits, int threshold, long position, int length, int bufferSize) {
+			this.carrier = carrier;
+			this.maxBits = maxBits;
+			this.threshold = threshold;
+			this.position = position;
+			this.remaining = length;
+			this.buffer = new byte[Math.max(Math.min(Math.min(bufferSize, length), PARALLEL_CHUNK_SIZE), 1)];
+		}
+
+		@Override
+		public int read() {
+			byte[] b = new byte[1];
+			return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (this.offset == this.buffered) {
+				if (this.remaining == 0)
+					return -1;
+				this.offset = 0;
+				this.buffered = Math.min(this.buffer.length, this.remaining);
+				DecodeTask task = new DecodeTask(this.carrier, this.maxBits, stripeUnit(this.maxBits, this.carrier.unitSize()), this.threshold, this.buffer,
+						this.position, this.position, this.position + this.buffered);
+				if (this.buffered <= this.threshold)
+					task.compute();
+				else
+					ForkJoinPool.commonPool().invoke(task);
+				this.position += this.buffered;
+				this.remaining -= this.buffered;
+			}
+			int n = Math.min(len, this.buffered - this.offset);
+			System.arraycopy(this.buffer, this.offset, b, off, n);
+			this.offset += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return this.buffered - this.offset + this.remaining;
+		}
+	}
+
+	/**
+	 * Gets the number of message bytes in the smallest stripe that starts and ends on a unit boundary of the carrier. Stripes then never share a carrier
+	 * byte, nor a unit of carrier bytes such as the three channels of one pixel that {@link PixelChannelView} packs into a single value.
+	 * 
+	 * @param maxBits
+	 *            Bits used per carrier byte
+	 * @param unitSize
+	 *            Carrier bytes per unit, see {@link Carrier#unitSize()}
+	 * @return Message bytes per stripe unit, the matching number of carrier bytes is this times 8 / maxBits
+	 */
+	private static int stripeUnit(int maxBits, int unitSize) {
+		// A whole number of message bytes fills 8 / gcd(8, maxBits) carrier bytes, stripes cover a multiple of that and of the unit size
+		int bytes = 8 / gcd(8, maxBits);
+		bytes = bytes / gcd(bytes, unitSize) * unitSize;
+		return bytes * maxBits / 8;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Encodes a range of message positions from an array, splitting it in half at a stripe boundary until it is below the parallel threshold
+	 */
+	private static class EncodeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Carrier carrier;
+		private final int maxBits;
+		private final int unit;
+		private final int threshold;
+		private final byte[] data;
+		private final long offset;
+		private final long from;
+		private final long to;
+
+		/**
+		 * @param unit
+		 *            Message bytes per stripe unit
+		 * @param data
+		 *            Array holding message bytes from offset onwards, offset being the message position of its first byte
+		 */
+		EncodeTask(Carrier carrier, int maxBits, int unit, int threshold, byte[] data, long offset, long from, long to) {
+			this.carrier = carrier;
+			this.maxBits = maxBits;
+			this.unit = unit;
+			this.threshold = threshold;
+			this.data = data;
+			this.offset = offset;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			long mid = (this.from + (this.to - this.from) / 2) / this.unit * this.unit;
+			if (this.to - this.from <= this.threshold || mid <= this.from) {
+				// from may fall part way through a carrier byte at the start of a chunk, the bits in front of it were written before this task
+				long bit = this.from * 8;
+				BitWriter writer = new BitWriter(this.carrier, this.maxBits, bit / this.maxBits, (int) (bit % this.maxBits));
+				writer.write(this.data, (int) (this.from - this.offset), (int) (this.to - this.from));
+				writer.flush();
+				return;
+			}
+			invokeAll(new EncodeTask(this.carrier, this.maxBits, this.unit, this.threshold, this.data, this.offset, this.from, mid), new EncodeTask(
+					this.carrier, this.maxBits, this.unit, this.threshold, this.data, this.offset, mid, this.to));
+			return;
+		}
+	}
+
+	/**
+	 * Decodes a range of message positions into an array, splitting it in half at a stripe boundary until it is below the parallel threshold
+	 */
+	private static class DecodeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Carrier carrier;
+		private final int maxBits;
+		private final int unit;
+		private final int threshold;
+		private final byte[] data;
+		private final long offset;
+		private final long from;
+		private final long to;
+
+		/**
+		 * @param unit
+		 *            Message bytes per stripe unit
+		 * @param data
+		 *            Array receiving message bytes from offset onwards, offset being the message position of its first byte
+		 */
+		DecodeTask(Carrier carrier, int maxBits, int unit, int threshold, byte[] data, long offset, long from, long to) {
+			this.carrier = carrier;
+			this.maxBits = maxBits;
+			this.unit = unit;
+			this.threshold = threshold;
+			this.data = data;
+			this.offset = offset;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			long mid = (this.from + (this.to - this.from) / 2) / this.unit * this.unit;
+			if (this.to - this.from <= this.threshold || mid <= this.from) {
+				// Start reading at the stripe boundary before from and skip the bytes in front of it
+				long start = this.from / this.unit * this.unit;
+				BitReader reader = new BitReader(this.carrier, this.maxBits, start * 8 / this.maxBits);
+				reader.read(new byte[(int) (this.from - start)], 0, (int) (this.from - start));
+				reader.read(this.data, (int) (this.from - this.offset), (int) (this.to - this.from));
+				return;
+			}
+			invokeAll(new DecodeTask(this.carrier, this.maxBits, this.unit, this.threshold, this.data, this.offset, this.from, mid), new DecodeTask(
+					this.carrier, this.maxBits, this.unit, this.threshold, this.data, this.offset, mid, this.to));
+			return;
+		}
+	}
 }
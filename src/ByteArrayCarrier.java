@@ -0,0 +1,67 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Carrier backed by a byte array, such as the data returned by {@link BMPLoader#getPixelData()}
+ */
+public class ByteArrayCarrier implements Carrier {
+
+	/**
+	 * Carrier bytes
+	 */
+	private final byte[] data;
+
+	/**
+	 * Constructs a Carrier over a byte array, changes are written straight to the array
+	 * 
+	 * @param data
+	 *            Carrier bytes
+	 */
+	public ByteArrayCarrier(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * Gets the byte array backing the Carrier
+	 * 
+	 * @return Carrier bytes
+	 */
+	public byte[] getData() {
+		return this.data;
+	}
+
+	@Override
+	public long size() {
+		return this.data.length;
+	}
+
+	@Override
+	public int unitSize() {
+		return 1;
+	}
+
+	@Override
+	public byte get(long index) {
+		return this.data[(int) index];
+	}
+
+	@Override
+	public void set(long index, byte value) {
+		this.data[(int) index] = value;
+		return;
+	}
+}
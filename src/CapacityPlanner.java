@@ -0,0 +1,190 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Works out how many payload bytes a carrier can hold at each maxBits setting from the Bitmap header alone, without loading any pixels
+ */
+public class CapacityPlanner {
+
+	/**
+	 * Size of the header stored in front of every payload, the largest one the encoder writes: a length with its format bits and a codec byte
+	 */
+	public static final int HEADER_SIZE = 5;
+
+	/**
+	 * Largest payload the length header can record, 30 bits
+	 */
+	public static final long MAX_LENGTH = 0x3FFFFFFF;
+
+	/**
+	 * Channels of each pixel that carry data, red, green and blue, the alpha channel is never carried
+	 */
+	public static final int CHANNELS = 3;
+
+	/**
+	 * Width of the carrier
+	 */
+	private int width;
+	/**
+	 * Height of the carrier
+	 */
+	private int height;
+
+	/**
+	 * Constructs a CapacityPlanner for a carrier of known dimensions
+	 *
+	 * @param width
+	 *            Width of the carrier
+	 * @param height
+	 *            Height of the carrier
+	 */
+	public CapacityPlanner(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Constructs a CapacityPlanner for a Bitmap File, reading only its header
+	 *
+	 * @param fileName
+	 *            Name of the Bitmap File
+	 * @throws IOException
+	 * @throws FileException
+	 *             If the file is not a Bitmap Image
+	 */
+	public CapacityPlanner(String fileName) throws IOException, FileException {
+		InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+		try {
+			BMPHeader header = BMPHeader.read(in);
+			this.width = header.getWidth();
+			this.height = header.getHeight();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Gets the number of payload bytes a carrier can hold, after the length header
+	 *
+	 * @param width
+	 *            Width of the carrier
+	 * @param height
+	 *            Height of the carrier
+	 * @param maxBits
+	 *            Bits used in each channel, 1 through 8
+	 * @return Usable capacity in bytes, 0 if not even the header fits, at most MAX_LENGTH
+	 * @throws BinaryException
+	 *             If maxBits is out of range
+	 */
+	public static long capacity(int width, int height, int maxBits) throws BinaryException {
+		if (maxBits > 8)
+			throw new BinaryException("Can modify at most 8 bits per byte");
+		if (maxBits < 1)
+			throw new BinaryException("Must modify at least 1 bits per byte");
+		long carrierBytes = (long) width * height * CHANNELS;
+		return Math.min(Math.max(carrierBytes * maxBits / 8 - HEADER_SIZE, 0), MAX_LENGTH);
+	}
+
+	/**
+	 * Gets the number of payload bytes the carrier can hold at a maxBits setting
+	 *
+	 * @param maxBits
+	 *            Bits used in each channel, 1 through 8
+	 * @return Usable capacity in bytes
+	 * @throws BinaryException
+	 *             If maxBits is out of range
+	 */
+	public long getCapacity(int maxBits) throws BinaryException {
+		return capacity(this.width, this.height, maxBits);
+	}
+
+	/**
+	 * Gets the usable capacity of the carrier at every maxBits setting
+	 *
+	 * @return Capacities in bytes, the capacity for maxBits n being at index n - 1
+	 */
+	public long[] getCapacities() {
+		long[] capacities = new long[8];
+		try {
+			for (int x = 0; x < capacities.length; x++) {
+				capacities[x] = capacity(this.width, this.height, x + 1);
+			}
+		} catch (BinaryException impossible) {
+			// Every maxBits from 1 through 8 is in range
+			throw new IllegalStateException(impossible);
+		}
+		return capacities;
+	}
+
+	/**
+	 * Picks the smallest maxBits setting at which a payload fits the carrier, changing as few bits of each channel as possible
+	 *
+	 * @param length
+	 *            Length of the payload in bytes
+	 * @return Smallest maxBits that fits, -1 if the payload does not fit at any setting
+	 */
+	public int getMaxBitsFor(long length) {
+		if (length < 0 || length > MAX_LENGTH)
+			return -1;
+		long carrierBytes = (long) this.width * this.height * CHANNELS;
+		// Smallest maxBits with carrierBytes * maxBits / 8 >= length + HEADER_SIZE
+		if (carrierBytes == 0)
+			return -1;
+		long maxBits = ((length + HEADER_SIZE) * 8 + carrierBytes - 1) / carrierBytes;
+		if (maxBits > 8)
+			return -1;
+		return (int) Math.max(maxBits, 1);
+	}
+
+	/**
+	 * Decides whether a payload fits the carrier at a maxBits setting
+	 *
+	 * @param length
+	 *            Length of the payload in bytes
+	 * @param maxBits
+	 *            Bits used in each channel, 1 through 8
+	 * @return True if the payload and its header fit
+	 * @throws BinaryException
+	 *             If maxBits is out of range
+	 */
+	public boolean fits(long length, int maxBits) throws BinaryException {
+		return length >= 0 && length <= this.getCapacity(maxBits);
+	}
+
+	/**
+	 * Gets the width of the carrier
+	 *
+	 * @return Width of carrier
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Gets the height of the carrier
+	 *
+	 * @return Height of carrier
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+}
@@ -0,0 +1,58 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Indexed sequence of carrier bytes that a message can be encoded in, in the same order as {@link BMPLoader#getPixelData()}. The parallel paths of
+ * {@link BinaryModifier} read and write the carrier from several threads at once, so implementations must allow different units, see {@link #unitSize()},
+ * to be read and written concurrently.
+ */
+public interface Carrier {
+
+	/**
+	 * Gets the number of carrier bytes
+	 * 
+	 * @return Number of carrier bytes
+	 */
+	public long size();
+
+	/**
+	 * Gets the number of consecutive carrier bytes stored together, such as the channels of one packed pixel, which must only be written by one thread at a
+	 * time. Units start at carrier byte 0.
+	 * 
+	 * @return Carrier bytes per unit, 1 if every carrier byte is stored on its own
+	 */
+	public int unitSize();
+
+	/**
+	 * Gets a carrier byte
+	 * 
+	 * @param index
+	 *            Index of the carrier byte
+	 * @return Value of the carrier byte
+	 */
+	public byte get(long index);
+
+	/**
+	 * Sets a carrier byte
+	 * 
+	 * @param index
+	 *            Index of the carrier byte
+	 * @param value
+	 *            Value to set
+	 */
+	public void set(long index, byte value);
+}
@@ -0,0 +1,329 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Indexes a directory of Bitmap carriers by size so the smallest carrier that fits a payload can be found without loading any pixels. Only the header of
+ * each carrier is read, and only when the file is new or has changed since the last scan. The index is kept in a small binary file inside the directory.
+ */
+public class CarrierIndex {
+
+	/**
+	 * Name of the index file kept in the indexed directory
+	 */
+	public static final String INDEX_FILE_NAME = ".carrierindex";
+
+	/**
+	 * Marks the start of an index file, "BMCI"
+	 */
+	private static final int MAGIC = 0x424D4349;
+	private static final int VERSION = 1;
+
+	/**
+	 * Directory of carriers
+	 */
+	private File directory;
+	/**
+	 * File the index is persisted to
+	 */
+	private File indexFile;
+
+	/**
+	 * Entries by file name
+	 */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	/**
+	 * Entries ordered by pixel count, then by file name
+	 */
+	private final TreeSet<Entry> bySize = new TreeSet<Entry>(new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			int c = Long.compare(a.getPixels(), b.getPixels());
+			return c != 0 ? c : a.name.compareTo(b.name);
+		}
+	});
+
+	/**
+	 * If the entries have changed since the index was last saved
+	 */
+	private boolean dirty = false;
+
+	/**
+	 * Constructs a CarrierIndex for a directory, loading the persisted index if there is one. Call {@link #update()} to bring it up to date.
+	 *
+	 * @param directory
+	 *            Name of the directory of carriers
+	 * @throws IOException
+	 *             If an existing index file could not be read
+	 * @throws FileException
+	 *             If the directory does not exist or the index file is malformed
+	 */
+	public CarrierIndex(String directory) throws IOException, FileException {
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory())
+			throw new FileException("The specified File is not a directory");
+		this.indexFile = new File(this.directory, INDEX_FILE_NAME);
+		if (this.indexFile.isFile())
+			this.load();
+	}
+
+	/**
+	 * Scans the directory and brings the index up to date. Headers are read only for carriers that are new or whose size or modification time changed, and
+	 * carriers that were removed are dropped. The index file is rewritten if anything changed.
+	 *
+	 * @return Number of carriers that were added, changed or removed
+	 * @throws IOException
+	 *             If the index file could not be written
+	 */
+	public synchronized int update() throws IOException {
+		int changes = 0;
+		Set<String> seen = new HashSet<String>();
+		File[] files = this.directory.listFiles();
+		if (files == null)
+			throw new IOException("Could not list " + this.directory);
+		for (File file : files) {
+			String name = file.getName();
+			if (!file.isFile() || !name.toLowerCase().endsWith(".bmp"))
+				continue;
+			seen.add(name);
+			Entry old = this.entries.get(name);
+			if (old != null && old.lastModified == file.lastModified() && old.length == file.length())
+				continue;
+			this.put(readEntry(file));
+			changes++;
+		}
+		Iterator<Entry> it = this.entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (!seen.contains(entry.name)) {
+				it.remove();
+				this.bySize.remove(entry);
+				this.dirty = true;
+				changes++;
+			}
+		}
+		if (this.dirty)
+			this.save();
+		return changes;
+	}
+
+	/**
+	 * Finds the smallest carrier that holds a payload changing at most maxBits bits of each channel
+	 *
+	 * @param length
+	 *            Length of the payload in bytes
+	 * @param maxBits
+	 *            Most bits of each channel that may be changed, 1 through 8
+	 * @return Smallest carrier that fits, null if none does
+	 * @throws BinaryException
+	 *             If maxBits is out of range
+	 */
+	public synchronized Entry find(long length, int maxBits) throws BinaryException {
+		if (maxBits > 8)
+			throw new BinaryException("Can modify at most 8 bits per byte");
+		if (maxBits < 1)
+			throw new BinaryException("Must modify at least 1 bits per byte");
+		if (length < 0 || length > CapacityPlanner.MAX_LENGTH)
+			return null;
+		// Fewest pixels with pixels * CHANNELS * maxBits / 8 >= length + HEADER_SIZE
+		long bits = (length + CapacityPlanner.HEADER_SIZE) * 8;
+		long perPixel = (long) CapacityPlanner.CHANNELS * maxBits;
+		Entry probe = new Entry("", 0, 0, 0, 0);
+		probe.pixels = (bits + perPixel - 1) / perPixel;
+		return this.bySize.ceiling(probe);
+	}
+
+	/**
+	 * Gets the number of carriers in the index
+	 *
+	 * @return Number of carriers
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Gets the indexed directory
+	 *
+	 * @return Directory of carriers
+	 */
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Adds or replaces an entry
+	 */
+	private void put(Entry entry) {
+		Entry old = this.entries.put(entry.name, entry);
+		if (old != null)
+			this.bySize.remove(old);
+		this.bySize.add(entry);
+		this.dirty = true;
+		return;
+	}
+
+	/**
+	 * Reads the header of a carrier. Files that are not readable Bitmap Images are recorded with no pixels, so they are not read again until they change.
+	 */
+	private static Entry readEntry(File file) {
+		int width = 0;
+		int height = 0;
+		try {
+			CapacityPlanner planner = new CapacityPlanner(file.getPath());
+			width = planner.getWidth();
+			height = planner.getHeight();
+		} catch (IOException | FileException e) {
+			System.err.println("Skipping " + file + ": " + e);
+		}
+		return new Entry(file.getName(), file.lastModified(), file.length(), width, height);
+	}
+
+	/**
+	 * Loads the persisted index
+	 */
+	private void load() throws IOException, FileException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new FileException("The specified File is not a carrier index");
+			int count = in.readInt();
+			for (int x = 0; x < count; x++) {
+				String name = in.readUTF();
+				long lastModified = in.readLong();
+				long length = in.readLong();
+				int width = in.readInt();
+				int height = in.readInt();
+				this.put(new Entry(name, lastModified, length, width, height));
+			}
+		} finally {
+			in.close();
+		}
+		this.dirty = false;
+		return;
+	}
+
+	/**
+	 * Writes the index to a temporary file and moves it over the old index, so an interrupted save never leaves a truncated index behind
+	 */
+	private void save() throws IOException {
+		File temp = new File(this.directory, INDEX_FILE_NAME + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.entries.size());
+			for (Entry entry : this.bySize) {
+				out.writeUTF(entry.name);
+				out.writeLong(entry.lastModified);
+				out.writeLong(entry.length);
+				out.writeInt(entry.width);
+				out.writeInt(entry.height);
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(this.indexFile)) {
+			this.indexFile.delete();
+			if (!temp.renameTo(this.indexFile))
+				throw new IOException("Could not replace " + this.indexFile);
+		}
+		this.dirty = false;
+		return;
+	}
+
+	/**
+	 * A carrier in the index
+	 */
+	public static class Entry {
+		private final String name;
+		private final long lastModified;
+		private final long length;
+		private final int width;
+		private final int height;
+		private long pixels;
+
+		private Entry(String name, long lastModified, long length, int width, int height) {
+			this.name = name;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.width = width;
+			this.height = height;
+			this.pixels = (long) width * height;
+		}
+
+		/**
+		 * Gets the file name of the carrier, relative to the indexed directory
+		 *
+		 * @return File name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * Gets the width of the carrier
+		 *
+		 * @return Width of carrier
+		 */
+		public int getWidth() {
+			return this.width;
+		}
+
+		/**
+		 * Gets the height of the carrier
+		 *
+		 * @return Height of carrier
+		 */
+		public int getHeight() {
+			return this.height;
+		}
+
+		/**
+		 * Gets the number of pixels of the carrier
+		 *
+		 * @return Width times height
+		 */
+		public long getPixels() {
+			return this.pixels;
+		}
+
+		/**
+		 * Gets a planner for the capacity of the carrier at each maxBits setting
+		 *
+		 * @return Capacity planner of the carrier
+		 */
+		public CapacityPlanner getPlanner() {
+			return new CapacityPlanner(this.width, this.height);
+		}
+	}
+}
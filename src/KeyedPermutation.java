@@ -0,0 +1,156 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Pseudo-random permutation of the integers 0 through size - 1 keyed by a password, computed one value at a time without any table. A balanced Feistel
+ * network permutes the smallest even power of two covering the range, and values that land outside the range are permuted again until they fall inside it
+ * (cycle walking), which keeps the result a permutation of the range and takes fewer than 4 passes on average.
+ *
+ * This scatters data over a carrier, it does not encrypt it, see {@link AES} for that.
+ */
+public class KeyedPermutation {
+
+	private static final String KEYGEN_SPEC = "PBKDF2WithHmacSHA256";
+	private static final int ITERATIONS = 65536;
+	private static final int ROUNDS = 6;
+
+	/**
+	 * Prefix of the salt, which also holds the size so one password gives unrelated permutations of different sizes
+	 */
+	private static final byte[] SALT_PREFIX = "BMSC".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Number of values permuted
+	 */
+	private final long size;
+	/**
+	 * Bits in each half of a Feistel block
+	 */
+	private final int halfBits;
+	private final long halfMask;
+	/**
+	 * Key of each Feistel round
+	 */
+	private final long[] roundKeys = new long[ROUNDS];
+
+	/**
+	 * Constructs a permutation of 0 through size - 1, deriving its keys from a password with PBKDF2
+	 *
+	 * @param password
+	 *            Password the permutation is derived from
+	 * @param size
+	 *            Number of values permuted
+	 * @throws BinaryException
+	 *             If size is less than 1 or the keys could not be derived
+	 */
+	public KeyedPermutation(char[] password, long size) throws BinaryException {
+		this(deriveKeys(password, size), size);
+	}
+
+	/**
+	 * Constructs a permutation of 0 through size - 1 from round keys
+	 *
+	 * @param keys
+	 *            Key material, at least 8 bytes for each of the rounds
+	 * @param size
+	 *            Number of values permuted
+	 * @throws BinaryException
+	 *             If size is less than 1 or there is too little key material
+	 */
+	public KeyedPermutation(byte[] keys, long size) throws BinaryException {
+		if (size < 1)
+			throw new BinaryException("Must permute at least 1 value");
+		if (keys.length < ROUNDS * 8)
+			throw new BinaryException("Need " + ROUNDS * 8 + " bytes of key material");
+		this.size = size;
+		int bits = Math.max(64 - Long.numberOfLeadingZeros(size - 1), 2);
+		this.halfBits = (bits + 1) / 2;
+		this.halfMask = (1L << this.halfBits) - 1;
+		ByteBuffer buffer = ByteBuffer.wrap(keys);
+		for (int x = 0; x < ROUNDS; x++) {
+			this.roundKeys[x] = buffer.getLong();
+		}
+	}
+
+	/**
+	 * Gets the number of values permuted
+	 *
+	 * @return Size of the permutation
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * Gets the value a value is moved to
+	 *
+	 * @param value
+	 *            Value from 0 through size - 1
+	 * @return Permuted value from 0 through size - 1
+	 * @throws IndexOutOfBoundsException
+	 *             If value is out of range
+	 */
+	public long permute(long value) {
+		if (value < 0 || value >= this.size)
+			throw new IndexOutOfBoundsException("Value out of range: " + value);
+		do {
+			value = this.encipher(value);
+		} while (value >= this.size);
+		return value;
+	}
+
+	/**
+	 * Runs one value through the Feistel network
+	 */
+	private long encipher(long value) {
+		long left = value >>> this.halfBits;
+		long right = value & this.halfMask;
+		int shift = 64 - this.halfBits;
+		for (int x = 0; x < ROUNDS; x++) {
+			// Round function, the top bits of a keyed multiplicative hash, which depend on every bit of the half
+			long next = left ^ (((right ^ this.roundKeys[x]) * 0x9E3779B97F4A7C15L) >>> shift);
+			left = right;
+			right = next;
+		}
+		return left << this.halfBits | right;
+	}
+
+	/**
+	 * Stretches a password into the round keys
+	 */
+	private static byte[] deriveKeys(char[] password, long size) throws BinaryException {
+		byte[] salt = ByteBuffer.allocate(SALT_PREFIX.length + 8).put(SALT_PREFIX).putLong(size).array();
+		try {
+			SecretKeyFactory factory = SecretKeyFactory.getInstance(KEYGEN_SPEC);
+			PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, ROUNDS * 64);
+			try {
+				return factory.generateSecret(spec).getEncoded();
+			} finally {
+				spec.clearPassword();
+			}
+		} catch (GeneralSecurityException e) {
+			throw new BinaryException("Could not derive a permutation from the password", e);
+		}
+	}
+}
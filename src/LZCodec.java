@@ -0,0 +1,375 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A fast LZ77 compressor in the style of LZ4, trading compression ratio for speed. Data is split into blocks of at most {@link #BLOCK_SIZE} bytes, each
+ * block being a sequence of literal runs and back references of at least 4 bytes found with a single hash table lookup per position.
+ *
+ * A stream is a series of blocks, each written as its uncompressed length and stored length as big-endian ints followed by the stored bytes, and ends with
+ * a block of length 0. A block whose stored length equals its uncompressed length is stored as is.
+ */
+public class LZCodec {
+
+	/**
+	 * Most uncompressed bytes in one block, which also keeps every back reference within a 16-bit offset
+	 */
+	public static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_OFFSET = 0xFFFF;
+	private static final int HASH_BITS = 14;
+
+	/**
+	 * Constructs a LZCodec Object, use the static methods or the streams
+	 */
+	private LZCodec() {
+
+	}
+
+	/**
+	 * Gets the largest number of bytes a block of data can compress to
+	 *
+	 * @param length
+	 *            Length of the uncompressed data
+	 * @return Size of output buffer needed by {@link #compress(byte[], int, int, byte[], int)}
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses a block of data
+	 *
+	 * @param src
+	 *            Data to compress
+	 * @param srcOff
+	 *            Offset of the data
+	 * @param srcLen
+	 *            Length of the data, at most {@link #BLOCK_SIZE}
+	 * @param dst
+	 *            Buffer of at least {@link #maxCompressedLength(int)} bytes from dstOff to compress into
+	 * @param dstOff
+	 *            Offset to start writing at
+	 * @return Number of compressed bytes written
+	 */
+	public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+		int[] table = new int[1 << HASH_BITS];
+		int end = srcOff + srcLen;
+		int limit = end - MIN_MATCH;
+		int anchor = srcOff;
+		int ip = srcOff;
+		int op = dstOff;
+		int misses = 0;
+		while (ip <= limit) {
+			int sequence = getInt(src, ip);
+			int hash = (sequence * 0x9E3779B1) >>> (32 - HASH_BITS);
+			// Table holds position + 1 so 0 means empty
+			int ref = table[hash] - 1;
+			table[hash] = ip + 1;
+			if (ref < 0 || ip - ref > MAX_OFFSET || getInt(src, ref) != sequence) {
+				// Step further through data that does not compress
+				ip += 1 + (misses++ >>> 6);
+				continue;
+			}
+			misses = 0;
+			int matchLength = MIN_MATCH;
+			while (ip + matchLength < end && src[ref + matchLength] == src[ip + matchLength]) {
+				matchLength++;
+			}
+			op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+			ip += matchLength;
+			anchor = ip;
+		}
+		if (anchor < end)
+			op = writeSequence(src, anchor, end - anchor, dst, op, 0, 0);
+		return op - dstOff;
+	}
+
+	/**
+	 * Decompresses a block of data
+	 *
+	 * @param src
+	 *            Compressed data
+	 * @param srcOff
+	 *            Offset of the compressed data
+	 * @param srcLen
+	 *            Length of the compressed data
+	 * @param dst
+	 *            Buffer to decompress into
+	 * @param dstOff
+	 *            Offset to start writing at
+	 * @param dstLen
+	 *            Expected length of the uncompressed data
+	 * @throws IOException
+	 *             If the compressed data is corrupt or does not decompress to dstLen bytes
+	 */
+	public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+		try {
+			int ip = srcOff;
+			int end = srcOff + srcLen;
+			int op = dstOff;
+			int outEnd = dstOff + dstLen;
+			while (ip < end) {
+				int token = src[ip++] & 0xFF;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literals += b;
+					} while (b == 255);
+				}
+				if (literals > end - ip || literals > outEnd - op)
+					throw new IOException("Corrupt LZ block");
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+				if (ip == end)
+					break;
+
+				int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+				ip += 2;
+				int matchLength = token & 0x0F;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				if (offset == 0 || offset > op - dstOff || matchLength > outEnd - op)
+					throw new IOException("Corrupt LZ block");
+				// Byte by byte, a match may overlap the bytes it produces
+				for (int x = 0; x < matchLength; x++) {
+					dst[op] = dst[op - offset];
+					op++;
+				}
+			}
+			if (op != outEnd)
+				throw new IOException("Corrupt LZ block");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt LZ block", e);
+		}
+		return;
+	}
+
+	/**
+	 * Writes a run of literals followed by a back reference, or only the literals when matchLength is 0
+	 */
+	private static int writeSequence(byte[] src, int literalOff, int literals, byte[] dst, int op, int offset, int matchLength) {
+		int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+		dst[op++] = (byte) (Math.min(literals, 15) << 4 | Math.min(matchCode, 15));
+		op = writeLength(literals, dst, op);
+		System.arraycopy(src, literalOff, dst, op, literals);
+		op += literals;
+		if (matchLength == 0)
+			return op;
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		return writeLength(matchCode, dst, op);
+	}
+
+	/**
+	 * Writes what is left of a length of 15 or more after its token nibble, as bytes of 255 followed by the remainder
+	 */
+	private static int writeLength(int length, byte[] dst, int op) {
+		if (length < 15)
+			return op;
+		length -= 15;
+		while (length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+
+	private static int getInt(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+	}
+
+	/**
+	 * Compresses everything written to it a block at a time. {@link #finish()} must be called to write the last block and the end of the stream.
+	 */
+	public static class CompressingOutputStream extends FilterOutputStream {
+
+		private final byte[] block = new byte[BLOCK_SIZE];
+		private final byte[] compressed = new byte[8 + maxCompressedLength(BLOCK_SIZE)];
+		private int count = 0;
+		private boolean finished = false;
+
+		/**
+		 * @param out
+		 *            Stream to write compressed blocks to
+		 */
+		public CompressingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (this.count == this.block.length)
+				this.writeBlock();
+			this.block[this.count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (this.count == this.block.length)
+					this.writeBlock();
+				int n = Math.min(len, this.block.length - this.count);
+				System.arraycopy(b, off, this.block, this.count, n);
+				this.count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		/**
+		 * Writes the last block and the end of the stream without closing the underlying stream
+		 *
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			if (this.finished)
+				return;
+			if (this.count > 0)
+				this.writeBlock();
+			putInt(this.compressed, 0, 0);
+			this.out.write(this.compressed, 0, 4);
+			this.finished = true;
+			return;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.finish();
+			super.close();
+		}
+
+		private void writeBlock() throws IOException {
+			int stored = compress(this.block, 0, this.count, this.compressed, 8);
+			if (stored >= this.count) {
+				stored = this.count;
+				System.arraycopy(this.block, 0, this.compressed, 8, stored);
+			}
+			putInt(this.compressed, 0, this.count);
+			putInt(this.compressed, 4, stored);
+			this.out.write(this.compressed, 0, 8 + stored);
+			this.count = 0;
+			return;
+		}
+
+		private static void putInt(byte[] b, int offset, int value) {
+			b[offset] = (byte) (value >>> 24);
+			b[offset + 1] = (byte) (value >>> 16);
+			b[offset + 2] = (byte) (value >>> 8);
+			b[offset + 3] = (byte) value;
+		}
+	}
+
+	/**
+	 * Decompresses a stream written by {@link CompressingOutputStream} a block at a time
+	 */
+	public static class DecompressingInputStream extends InputStream {
+
+		private final DataInputStream in;
+		private final byte[] block = new byte[BLOCK_SIZE];
+		private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+		private int position = 0;
+		private int count = 0;
+		private boolean ended = false;
+
+		/**
+		 * @param in
+		 *            Stream of compressed blocks
+		 */
+		public DecompressingInputStream(InputStream in) {
+			this.in = new DataInputStream(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.position == this.count && !this.readBlock())
+				return -1;
+			return this.block[this.position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (this.position == this.count && !this.readBlock())
+				return -1;
+			int n = Math.min(len, this.count - this.position);
+			System.arraycopy(this.block, this.position, b, off, n);
+			this.position += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return this.count - this.position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+
+		/**
+		 * Reads and decompresses the next block
+		 *
+		 * @return False at the end of the stream
+		 */
+		private boolean readBlock() throws IOException {
+			while (!this.ended) {
+				int length;
+				try {
+					length = this.in.readInt();
+				} catch (EOFException e) {
+					throw new EOFException("LZ stream ended without an end block");
+				}
+				if (length == 0) {
+					this.ended = true;
+					break;
+				}
+				int stored = this.in.readInt();
+				if (length < 0 || length > BLOCK_SIZE || stored < 0 || stored > length)
+					throw new IOException("Corrupt LZ block header");
+				this.in.readFully(this.compressed, 0, stored);
+				if (stored == length)
+					System.arraycopy(this.compressed, 0, this.block, 0, length);
+				else
+					decompress(this.compressed, 0, stored, this.block, 0, length);
+				this.position = 0;
+				this.count = length;
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -17,18 +17,63 @@ You should have received a copy of the GNU General Public License
 along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class Main {
 	public static void main(String args[]) {
 		try {
+			if (args.length > 0 && args[0].equals("-batch")) {
+				if (args.length < 2) {
+					System.out.println("Usage: Main -batch <manifest> [threads]");
+					return;
+				}
+				BatchEncoder batch = args.length > 2 ? new BatchEncoder(Integer.parseInt(args[2])) : new BatchEncoder();
+				batch.run(args[1]);
+				return;
+			}
+			if (args.length > 0 && args[0].equals("-pick")) {
+				if (args.length < 5) {
+					System.out.println("Usage: Main -pick <directory> <payload> <maxBits> <output>");
+					return;
+				}
+				encodePicked(args[1], args[2], Integer.parseInt(args[3]), args[4]);
+				return;
+			}
+			if (args.length > 0 && args[0].equals("-shard")) {
+				if (args.length < 5) {
+					System.out.println("Usage: Main -shard <payload> <maxBits> <output directory> <carrier>...");
+					return;
+				}
+				List<String> carriers = Arrays.asList(args).subList(4, args.length);
+				List<String> outputs = new ArrayList<String>();
+				for (String carrier : carriers) {
+					outputs.add(new File(args[3], new File(carrier).getName()).getPath());
+				}
+				int shards = new ShardedPayload(Integer.parseInt(args[2])).encode(args[1], carriers, outputs);
+				System.out.println("Wrote " + shards + " shards to " + args[3]);
+				return;
+			}
+			if (args.length > 0 && args[0].equals("-unshard")) {
+				if (args.length < 4) {
+					System.out.println("Usage: Main -unshard <output> <maxBits> <carrier>...");
+					return;
+				}
+				long length = new ShardedPayload(Integer.parseInt(args[2])).decode(Arrays.asList(args).subList(3, args.length), args[1]);
+				System.out.println("Wrote " + length + " bytes to " + args[1]);
+				return;
+			}
+
 			/*
 			BMPLoader loader = new BMPLoader("1.bmp");
 			ImageViewer iv = new ImageViewer(loader.getImageBuffer());
@@ -47,7 +92,7 @@ public class Main {
 			loader.saveToFile("forYou.bmp");
 			 */
 
-			System.out.print("Draw Image (i) encode (e) or decode (d)? : ");
+			System.out.print("Draw Image (i) encode (e) encode in place (p) or decode (d)? : ");
 
 			BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 			String temp = "";
@@ -55,6 +100,7 @@ public class Main {
 
 			if(temp.equals("i")) drawImage();
 			if(temp.equals("e")) encode();
+			if(temp.equals("p")) encodeInPlace();
 			if(temp.equals("d")) decode();
 
 		} catch (Exception e) {
@@ -63,13 +109,14 @@ public class Main {
 		return;
 	}
 
-	public static void drawImage() throws IOException, ObjectException {
+	public static void drawImage() throws IOException, FileException, ObjectException {
 		System.out.print("Enter BMP File to View: ");
 
 		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 		String temp = "";
 		temp = reader.readLine();
-		BMPLoader loader = new BMPLoader(temp);
+		BMPLoader loader = new BMPLoader();
+		loader.setFile(temp);
 
 		ImageViewer iv = new ImageViewer(loader.getImageBuffer());
 		iv.drawImage();
@@ -77,22 +124,37 @@ public class Main {
 		return;
 	}
 
-	public static void encode() throws IOException, NumberFormatException, BinaryException {
+	public static void encode() throws IOException, NumberFormatException, BinaryException, FileException, PixelException, ObjectException {
 		System.out.print("Enter BMP File to Encode: ");
 
 		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 		String temp = "";
 		temp = reader.readLine();
-		BMPLoader loader = new BMPLoader(temp);
+		BMPLoader loader = new BMPLoader();
+		loader.setFile(temp);
+		loader.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
 
 		System.out.print("Enter maxBits value: ");
 		temp = reader.readLine();
 		BinaryModifier bm = new BinaryModifier(Integer.parseInt(temp));
 
+		System.out.print("Compress with none (n) deflate (z) or fast (f)? : ");
+		temp = reader.readLine();
+		int codec = BinaryModifier.CODEC_NONE;
+		if(temp.equals("z")) codec = BinaryModifier.CODEC_DEFLATE;
+		if(temp.equals("f")) codec = BinaryModifier.CODEC_LZ;
+
 		System.out.print("Enter file to Encode: ");
 		File encodeFile = new File(reader.readLine());
-		loader.setPixelData(bm.encodeMessage(loader.getPixelData(), BinaryModifier.embedHeader(IOUtils.toByteArray(new FileInputStream(encodeFile)))));
-		loader.recalcBuffer();
+		PixelChannelView pixels = new PixelChannelView(loader);
+		Carrier carrier = scatter(pixels, reader);
+		InputStream in = new FileInputStream(encodeFile);
+		try {
+			bm.encode(in, encodeFile.length(), carrier, codec, BMPLoader.PIXEL_ORDER_ROWS);
+		} finally {
+			in.close();
+		}
+		pixels.flush();
 
 		System.out.print("Enter File to Save: ");
 		loader.saveToFile(reader.readLine());
@@ -101,23 +163,124 @@ public class Main {
 		return;
 	}
 
-	public static void decode() throws NumberFormatException, BinaryException, IOException {
+	public static void encodePicked(String directory, String payload, int maxBits, String output) throws IOException, BinaryException, FileException,
+			PixelException, ObjectException {
+		CarrierIndex index = new CarrierIndex(directory);
+		index.update();
+		File encodeFile = new File(payload);
+		CarrierIndex.Entry entry = index.find(encodeFile.length(), maxBits);
+		if (entry == null)
+			throw new BinaryException("No carrier in " + directory + " fits " + encodeFile.length() + " bytes at maxBits " + maxBits);
+		int bits = entry.getPlanner().getMaxBitsFor(encodeFile.length());
+		System.out.println("Using " + entry.getName() + " (" + entry.getWidth() + "x" + entry.getHeight() + ") at maxBits " + bits);
+
+		BMPLoader loader = new BMPLoader();
+		loader.setFile(new File(index.getDirectory(), entry.getName()).getPath());
+		loader.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
+		BinaryModifier bm = new BinaryModifier(bits);
+		PixelChannelView pixels = new PixelChannelView(loader);
+		InputStream in = new FileInputStream(encodeFile);
+		try {
+			bm.encode(in, encodeFile.length(), pixels, BinaryModifier.CODEC_NONE, BMPLoader.PIXEL_ORDER_ROWS);
+		} finally {
+			in.close();
+		}
+		pixels.flush();
+		loader.saveToFile(output);
+		return;
+	}
+
+	public static void encodeInPlace() throws IOException, NumberFormatException, BinaryException, FileException {
+		System.out.print("Enter BMP File to Encode in place: ");
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+		String temp = "";
+		temp = reader.readLine();
+		MappedCarrier mapped = new MappedCarrier(temp, BMPLoader.PIXEL_ORDER_ROWS);
+
+		System.out.print("Enter maxBits value: ");
+		temp = reader.readLine();
+		BinaryModifier bm = new BinaryModifier(Integer.parseInt(temp));
+
+		System.out.print("Enter file to Encode: ");
+		File encodeFile = new File(reader.readLine());
+		InputStream in = new FileInputStream(encodeFile);
+		try {
+			bm.encode(in, encodeFile.length(), scatter(mapped, reader), BinaryModifier.CODEC_NONE, BMPLoader.PIXEL_ORDER_ROWS);
+		} finally {
+			in.close();
+			mapped.close();
+		}
+
+		reader.close();
+		return;
+	}
+
+	public static void decode() throws NumberFormatException, BinaryException, IOException, FileException, PixelException, ObjectException {
 		System.out.print("Enter BMP File to Decode: ");
 
 		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 		String temp = "";
 		temp = reader.readLine();
-		BMPLoader loader = new BMPLoader(temp);
+		BMPLoader loader = new BMPLoader();
+		loader.setFile(temp);
 
 		System.out.print("Enter maxBits value: ");
 		temp = reader.readLine();
 		BinaryModifier bm = new BinaryModifier(Integer.parseInt(temp));
 
+		// Scattered messages are always encoded in row order, images encoded before row order was added are read in column order
+		Carrier carrier;
+		char[] password = readPassword(reader, "Enter the password the message was scattered with, or leave blank: ");
+		if (password != null) {
+			loader.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
+			carrier = new ScatteredCarrier(new PixelChannelView(loader), password);
+		} else {
+			carrier = new PixelChannelView(loader);
+			int pixelOrder = bm.readPixelOrder(carrier);
+			if (pixelOrder != loader.getPixelOrder()) {
+				loader.setPixelOrder(pixelOrder);
+				carrier = new PixelChannelView(loader);
+			}
+		}
+
 		System.out.print("Enter file to save decoded data to: ");
-		FileUtils.writeByteArrayToFile(new File(reader.readLine()), BinaryModifier.getData(bm.decodeMessage(loader.getPixelData())));
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(reader.readLine()));
+		try {
+			bm.decode(carrier, out);
+		} finally {
+			out.close();
+		}
 
 		reader.close();
 		return;
 	}
 
+	/**
+	 * Asks for a password to scatter a message over a carrier with
+	 * 
+	 * @return Carrier scattered by the password, or the carrier itself if no password was given
+	 */
+	private static Carrier scatter(Carrier carrier, BufferedReader reader) throws IOException, BinaryException {
+		char[] password = readPassword(reader, "Enter password to scatter the message, or leave blank: ");
+		if (password == null)
+			return carrier;
+		return new ScatteredCarrier(carrier, password);
+	}
+
+	/**
+	 * Asks for the password of a scattered message
+	 * 
+	 * @param prompt
+	 *            Text asking for the password
+	 * @return Password, null if left blank
+	 */
+	private static char[] readPassword(BufferedReader reader, String prompt) throws IOException {
+		System.out.print(prompt);
+		String password = reader.readLine();
+		if (password == null || password.isEmpty())
+			return null;
+		return password.toCharArray();
+	}
+
 }
@@ -0,0 +1,217 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Carrier over the pixel data of an uncompressed Bitmap File mapped into memory, so a message can be encoded in place without loading the image. Carrier
+ * bytes are ordered the same way as {@link BMPLoader#getPixelData()} in the same pixel order, so images encoded in place decode the same as images encoded
+ * through a BMPLoader.
+ */
+public class MappedCarrier implements Carrier, Closeable {
+
+	/**
+	 * Largest region of the file mapped by a single buffer
+	 */
+	private static final int SEGMENT_SIZE = 1 << 30;
+
+	/**
+	 * Color channels per pixel, matching a BMPLoader that is not using alpha
+	 */
+	private static final int CHANNELS = 3;
+
+	/**
+	 * Header of the Bitmap File
+	 */
+	private BMPHeader header;
+
+	/**
+	 * Open file
+	 */
+	private RandomAccessFile file;
+
+	/**
+	 * Mapped regions of the pixel data
+	 */
+	private MappedByteBuffer[] segments;
+
+	/**
+	 * Width of the Bitmap Image
+	 */
+	private int bmpWidth;
+
+	/**
+	 * Height of the Bitmap Image
+	 */
+	private int bmpHeight;
+
+	/**
+	 * Order of the carrier bytes, BMPLoader.PIXEL_ORDER_COLUMNS or BMPLoader.PIXEL_ORDER_ROWS
+	 */
+	private int pixelOrder;
+
+	/**
+	 * Bytes per pixel in the file
+	 */
+	private int bytesPerPixel;
+
+	/**
+	 * Bytes per row in the file, including padding
+	 */
+	private long rowStride;
+
+	/**
+	 * Maps the pixel data of a Bitmap File for reading and writing in column order
+	 * 
+	 * @param fileName
+	 *            Name of the Bitmap File
+	 * @throws IOException
+	 * @throws FileException
+	 *             If the file is not an uncompressed 24-bit or 32-bit Bitmap Image
+	 */
+	public MappedCarrier(String fileName) throws IOException, FileException {
+		this(fileName, BMPLoader.PIXEL_ORDER_COLUMNS);
+	}
+
+	/**
+	 * Maps the pixel data of a Bitmap File for reading and writing
+	 * 
+	 * @param fileName
+	 *            Name of the Bitmap File
+	 * @param pixelOrder
+	 *            BMPLoader.PIXEL_ORDER_COLUMNS or BMPLoader.PIXEL_ORDER_ROWS
+	 * @throws IOException
+	 * @throws FileException
+	 *             If the file is not an uncompressed 24-bit or 32-bit Bitmap Image or the pixel order is unknown
+	 */
+	public MappedCarrier(String fileName, int pixelOrder) throws IOException, FileException {
+		if (pixelOrder != BMPLoader.PIXEL_ORDER_COLUMNS && pixelOrder != BMPLoader.PIXEL_ORDER_ROWS)
+			throw new FileException("Unknown pixel order " + pixelOrder);
+		this.pixelOrder = pixelOrder;
+		File bmpFile = new File(fileName);
+		InputStream in = new BufferedInputStream(new FileInputStream(bmpFile));
+		try {
+			this.header = BMPHeader.read(in);
+		} finally {
+			in.close();
+		}
+		if (!this.header.isDirectColor())
+			throw new FileException("In place encoding needs an uncompressed 24-bit or 32-bit Bitmap Image");
+
+		this.bmpWidth = this.header.getWidth();
+		this.bmpHeight = this.header.getHeight();
+		this.bytesPerPixel = this.header.getBytesPerPixel();
+		this.rowStride = this.header.getRowStride();
+
+		long length = this.rowStride * this.bmpHeight;
+		this.file = new RandomAccessFile(bmpFile, "rw");
+		if (this.file.length() < this.header.getPixelOffset() + length) {
+			this.file.close();
+			throw new FileException("The specified File is truncated");
+		}
+		FileChannel channel = this.file.getChannel();
+		this.segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		try {
+			for (int x = 0; x < this.segments.length; x++) {
+				long start = (long) x * SEGMENT_SIZE;
+				this.segments[x] = channel.map(FileChannel.MapMode.READ_WRITE, this.header.getPixelOffset() + start, Math.min(SEGMENT_SIZE, length - start));
+			}
+		} catch (IOException | RuntimeException e) {
+			// A later segment may fail to map, for example when address space runs out, so do not leave the file open
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the header of the mapped Bitmap File
+	 * 
+	 * @return Bitmap header
+	 */
+	public BMPHeader getHeader() {
+		return this.header;
+	}
+
+	@Override
+	public long size() {
+		return (long) this.bmpWidth * this.bmpHeight * CHANNELS;
+	}
+
+	@Override
+	public int unitSize() {
+		// Every carrier byte is its own byte of the file
+		return 1;
+	}
+
+	@Override
+	public byte get(long index) {
+		long offset = this.offset(index);
+		return this.segments[(int) (offset / SEGMENT_SIZE)].get((int) (offset % SEGMENT_SIZE));
+	}
+
+	@Override
+	public void set(long index, byte value) {
+		long offset = this.offset(index);
+		this.segments[(int) (offset / SEGMENT_SIZE)].put((int) (offset % SEGMENT_SIZE), value);
+	}
+
+	/**
+	 * Gets the offset within the pixel data of a carrier byte. Carrier bytes run red, green, blue per pixel, either down each column and then across the
+	 * columns or across each row and then down the rows.
+	 * 
+	 * @param index
+	 *            Index of the carrier byte
+	 * @return Offset of the byte from the start of the pixel data
+	 */
+	private long offset(long index) {
+		if (index < 0 || index >= this.size())
+			throw new IndexOutOfBoundsException("Carrier index out of range: " + index);
+		long pixel = index / CHANNELS;
+		int channel = (int) (index % CHANNELS);
+		long x;
+		int y;
+		if (this.pixelOrder == BMPLoader.PIXEL_ORDER_ROWS) {
+			x = pixel % this.bmpWidth;
+			y = (int) (pixel / this.bmpWidth);
+		} else {
+			x = pixel / this.bmpHeight;
+			y = (int) (pixel % this.bmpHeight);
+		}
+		int row = this.header.isTopDown() ? y : this.bmpHeight - 1 - y;
+		// Pixels are stored blue, green, red in the file
+		return row * this.rowStride + x * this.bytesPerPixel + (CHANNELS - 1 - channel);
+	}
+
+	/**
+	 * Flushes the modified pixel data to the file and closes it
+	 */
+	@Override
+	public void close() throws IOException {
+		for (MappedByteBuffer segment : this.segments)
+			segment.force();
+		this.file.close();
+		return;
+	}
+}
@@ -17,10 +17,35 @@ You should have received a copy of the GNU General Public License
 along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
 */
 
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 
 public class OneTimePad {
 
+	/**
+	 * Modes of combining data with the key, a long (8 bytes) at a time
+	 */
+	private static final int MODE_ADD = 0;
+	private static final int MODE_SUBTRACT = 1;
+	private static final int MODE_XOR = 2;
+
+	/**
+	 * Masks of the high bit and the low 7 bits of every byte in a long
+	 */
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	/**
+	 * Number of bytes of data and key held in memory at once when working on streams
+	 */
+	private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+
 	private int[] data;
 	private int[] key;
 	private boolean hasKey;
@@ -118,4 +143,220 @@ public class OneTimePad {
 		return crypted;
 	}
 
+
+	/**
+	 * Generates a byte array key filled with secure random bytes
+	 * 
+	 * @param length
+	 *            Length of the key
+	 * @return Returns the key
+	 */
+	public static byte[] genKey(int length) {
+		byte[] key = new byte[length];
+		new SecureRandom().nextBytes(key);
+		return key;
+	}
+
+	/**
+	 * Encrypts data with a pad in place, adding each key byte to the matching data byte modulo 256 as {@link #encrypt()} does
+	 * 
+	 * @param data
+	 *            Byte array of data to encrypt, overwritten with the encrypted data
+	 * @param key
+	 *            Key at least as long as the data
+	 * @return Returns void on completion
+	 */
+	public static void encrypt(byte[] data, byte[] key) {
+		apply(MODE_ADD, data, key, data.length);
+		return;
+	}
+
+	/**
+	 * Decrypts data with a pad in place, subtracting each key byte from the matching data byte modulo 256 as {@link #decrypt()} does
+	 * 
+	 * @param data
+	 *            Byte array of data to decrypt, overwritten with the decrypted data
+	 * @param key
+	 *            Key at least as long as the data
+	 * @return Returns void on completion
+	 */
+	public static void decrypt(byte[] data, byte[] key) {
+		apply(MODE_SUBTRACT, data, key, data.length);
+		return;
+	}
+
+	/**
+	 * Encrypts or decrypts data with a pad in place by XORing each key byte with the matching data byte
+	 * 
+	 * @param data
+	 *            Byte array of data, overwritten with the result
+	 * @param key
+	 *            Key at least as long as the data
+	 * @return Returns void on completion
+	 */
+	public static void xor(byte[] data, byte[] key) {
+		apply(MODE_XOR, data, key, data.length);
+		return;
+	}
+
+	/**
+	 * Generates a key of secure random bytes and writes it to a stream, so a pad for data larger than memory never has to be held in memory
+	 * 
+	 * @param length
+	 *            Length of the key
+	 * @param out
+	 *            Stream to write the key to, which is left open
+	 * @return Returns void on completion
+	 * @throws IOException
+	 */
+	public static void genKey(long length, OutputStream out) throws IOException {
+		SecureRandom random = new SecureRandom();
+		byte[] chunk = new byte[(int) Math.min(STREAM_CHUNK_SIZE, length)];
+		for (long remaining = length; remaining > 0;) {
+			int n = (int) Math.min(chunk.length, remaining);
+			random.nextBytes(chunk);
+			out.write(chunk, 0, n);
+			remaining -= n;
+		}
+		return;
+	}
+
+	/**
+	 * Generates a key of secure random bytes and writes it to a file
+	 * 
+	 * @param length
+	 *            Length of the key
+	 * @param fileName
+	 *            Name of the file to write the key to
+	 * @return Returns void on completion
+	 * @throws IOException
+	 */
+	public static void genKey(long length, String fileName) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), STREAM_CHUNK_SIZE);
+		try {
+			genKey(length, out);
+		} finally {
+			out.close();
+		}
+		return;
+	}
+
+	/**
+	 * Encrypts a stream of data with a stream of key as {@link #encrypt(byte[], byte[])} does, in fixed size chunks so that memory use does not grow with the
+	 * size of the data
+	 * 
+	 * @param data
+	 *            Stream of data to encrypt
+	 * @param key
+	 *            Stream of key, at least as long as the data
+	 * @param out
+	 *            Stream to write the encrypted data to, which is left open
+	 * @return Returns the number of bytes encrypted
+	 * @throws IOException
+	 *             If a stream could not be read or written, or the key ends before the data
+	 */
+	public static long encrypt(InputStream data, InputStream key, OutputStream out) throws IOException {
+		return apply(MODE_ADD, data, key, out);
+	}
+
+	/**
+	 * Decrypts a stream of data with a stream of key as {@link #decrypt(byte[], byte[])} does, in fixed size chunks so that memory use does not grow with the
+	 * size of the data
+	 * 
+	 * @param data
+	 *            Stream of data to decrypt
+	 * @param key
+	 *            Stream of key, at least as long as the data
+	 * @param out
+	 *            Stream to write the decrypted data to, which is left open
+	 * @return Returns the number of bytes decrypted
+	 * @throws IOException
+	 *             If a stream could not be read or written, or the key ends before the data
+	 */
+	public static long decrypt(InputStream data, InputStream key, OutputStream out) throws IOException {
+		return apply(MODE_SUBTRACT, data, key, out);
+	}
+
+	/**
+	 * XORs a stream of data with a stream of key as {@link #xor(byte[], byte[])} does, in fixed size chunks
+	 * 
+	 * @param data
+	 *            Stream of data
+	 * @param key
+	 *            Stream of key, at least as long as the data
+	 * @param out
+	 *            Stream to write the result to, which is left open
+	 * @return Returns the number of bytes processed
+	 * @throws IOException
+	 *             If a stream could not be read or written, or the key ends before the data
+	 */
+	public static long xor(InputStream data, InputStream key, OutputStream out) throws IOException {
+		return apply(MODE_XOR, data, key, out);
+	}
+
+	/**
+	 * Combines a stream of data with a stream of key a chunk at a time, reusing the same two buffers for every chunk
+	 */
+	private static long apply(int mode, InputStream data, InputStream key, OutputStream out) throws IOException {
+		byte[] dataChunk = new byte[STREAM_CHUNK_SIZE];
+		byte[] keyChunk = new byte[STREAM_CHUNK_SIZE];
+		long total = 0;
+		int n;
+		while ((n = data.read(dataChunk)) != -1) {
+			for (int read = 0; read < n;) {
+				int r = key.read(keyChunk, read, n - read);
+				if (r == -1)
+					throw new EOFException("Key is shorter than the data");
+				read += r;
+			}
+			apply(mode, dataChunk, keyChunk, n);
+			out.write(dataChunk, 0, n);
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Combines the first bytes of data with the key in place, 8 bytes at a time. Adding and subtracting keep carries and borrows from crossing between bytes
+	 * by working on the low 7 bits of each byte and fixing up the high bit separately.
+	 * 
+	 * @param mode
+	 *            MODE_ADD, MODE_SUBTRACT or MODE_XOR
+	 * @param data
+	 *            Data to combine, overwritten with the result
+	 * @param key
+	 *            Key to combine with
+	 * @param length
+	 *            Number of bytes to combine
+	 */
+	private static void apply(int mode, byte[] data, byte[] key, int length) {
+		if (key.length < length || data.length < length)
+			throw new IllegalArgumentException("Key is shorter than the data");
+		ByteBuffer dataBuffer = ByteBuffer.wrap(data);
+		ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+		int x = 0;
+		for (; x + 8 <= length; x += 8) {
+			long d = dataBuffer.getLong(x);
+			long k = keyBuffer.getLong(x);
+			long result;
+			if (mode == MODE_ADD) {
+				result = ((d & LOW_BITS) + (k & LOW_BITS)) ^ ((d ^ k) & HIGH_BITS);
+			} else if (mode == MODE_SUBTRACT) {
+				result = ((d | HIGH_BITS) - (k & LOW_BITS)) ^ ((d ^ ~k) & HIGH_BITS);
+			} else {
+				result = d ^ k;
+			}
+			dataBuffer.putLong(x, result);
+		}
+		for (; x < length; x++) {
+			if (mode == MODE_ADD) {
+				data[x] = (byte) (data[x] + key[x]);
+			} else if (mode == MODE_SUBTRACT) {
+				data[x] = (byte) (data[x] - key[x]);
+			} else {
+				data[x] = (byte) (data[x] ^ key[x]);
+			}
+		}
+		return;
+	}
 }
@@ -0,0 +1,136 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Carrier over the pixels of a BMPLoader, reading and writing its packed image data in place instead of through a copy from
+ * {@link BMPLoader#getPixelData()}. Carrier bytes are in the pixel order the loader had when the view was made. Rows that are written are marked in the
+ * loader, and {@link #flush()} copies only those rows into the loader's Image Buffer.
+ */
+public class PixelChannelView implements Carrier {
+
+	/**
+	 * Color channels per pixel, matching a BMPLoader that is not using alpha
+	 */
+	private static final int CHANNELS = 3;
+
+	/**
+	 * Loader whose pixels are viewed
+	 */
+	private final BMPLoader loader;
+
+	/**
+	 * Packed image data of the loader
+	 */
+	private final int[] rgbData;
+
+	/**
+	 * Width of the Bitmap Image
+	 */
+	private final int bmpWidth;
+	/**
+	 * Height of the Bitmap Image
+	 */
+	private final int bmpHeight;
+
+	/**
+	 * Order of the carrier bytes, BMPLoader.PIXEL_ORDER_COLUMNS or BMPLoader.PIXEL_ORDER_ROWS
+	 */
+	private final int pixelOrder;
+
+	/**
+	 * Constructs a view over the pixels of a loader in its current pixel order
+	 *
+	 * @param loader
+	 *            Loader with an image loaded
+	 * @throws ObjectException
+	 *             If no image is loaded
+	 */
+	public PixelChannelView(BMPLoader loader) throws ObjectException {
+		if (loader.getRgbData() == null)
+			throw new ObjectException("Image is null");
+		this.loader = loader;
+		this.rgbData = loader.getRgbData();
+		this.bmpWidth = loader.getWidth();
+		this.bmpHeight = loader.getHeight();
+		this.pixelOrder = loader.getPixelOrder();
+	}
+
+	@Override
+	public long size() {
+		return (long) this.rgbData.length * CHANNELS;
+	}
+
+	@Override
+	public int unitSize() {
+		// The channels of a pixel are packed into one int
+		return CHANNELS;
+	}
+
+	@Override
+	public byte get(long index) {
+		return (byte) (this.rgbData[this.pixelIndex(index)] >> channelShift(index));
+	}
+
+	@Override
+	public void set(long index, byte value) {
+		int pixel = this.pixelIndex(index);
+		int shift = channelShift(index);
+		this.rgbData[pixel] = (this.rgbData[pixel] & ~(0xFF << shift)) | ((value & 0xFF) << shift);
+		this.loader.markDirty(pixel / this.bmpWidth);
+	}
+
+	/**
+	 * Decides whether any pixels of the loader changed since its Image Buffer was last recalculated
+	 *
+	 * @return True if there are rows to flush
+	 */
+	public boolean isDirty() {
+		return this.loader.isDirty();
+	}
+
+	/**
+	 * Copies the changed rows into the loader's Image Buffer, see {@link BMPLoader#recalcBuffer()}
+	 */
+	public void flush() {
+		this.loader.recalcBuffer();
+		return;
+	}
+
+	/**
+	 * Gets the index in the packed image data of the pixel holding a carrier byte
+	 *
+	 * @param index
+	 *            Index of the carrier byte
+	 * @return Index of the pixel
+	 */
+	private int pixelIndex(long index) {
+		if (index < 0 || index >= this.size())
+			throw new IndexOutOfBoundsException("Carrier index out of range: " + index);
+		int pixel = (int) (index / CHANNELS);
+		if (this.pixelOrder == BMPLoader.PIXEL_ORDER_ROWS)
+			return pixel;
+		// Down each column and then across the columns
+		return (pixel % this.bmpHeight) * this.bmpWidth + pixel / this.bmpHeight;
+	}
+
+	/**
+	 * Gets the bit shift within a packed pixel of the channel a carrier byte holds, the channels running red, green, blue
+	 */
+	private static int channelShift(long index) {
+		return (CHANNELS - 1 - (int) (index % CHANNELS)) * 8;
+	}
+}
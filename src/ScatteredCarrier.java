@@ -0,0 +1,126 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Carrier that scatters the bytes of another carrier in a pseudo-random order derived from a password, so a message is spread over the whole image instead
+ * of filling it from the first pixel. Whole pixels are moved, each keeping its 3 bytes together in order, so the units of the scattered carrier stay whole
+ * and it is as safe for the parallel paths of {@link BinaryModifier} as the carrier it scatters. Any byte is found in constant time, without a table the
+ * size of the image.
+ *
+ * A message encoded through a ScatteredCarrier must be decoded through a ScatteredCarrier made with the same password over a carrier of the same size and
+ * pixel order.
+ */
+public class ScatteredCarrier implements Carrier {
+
+	/**
+	 * Carrier bytes per pixel
+	 */
+	private static final int CHANNELS = 3;
+
+	/**
+	 * Carrier whose pixels are scattered
+	 */
+	private final Carrier carrier;
+
+	/**
+	 * Permutation of the pixels of the carrier
+	 */
+	private final KeyedPermutation permutation;
+
+	/**
+	 * Whether pixel numbers fit in 32 bits, so a pixel and where it is scattered to can be packed into {@link #last}
+	 */
+	private final boolean packed;
+
+	/**
+	 * Last pixel looked up in its high 32 bits and where it is scattered to in its low 32 bits, so both are read and written together from any thread. The
+	 * bytes of a pixel are read and written one after another, so most lookups skip the permutation. -1, which matches no pixel, when empty.
+	 */
+	private volatile long last = -1;
+
+	/**
+	 * Constructs a Carrier scattering the pixels of another carrier by a password
+	 *
+	 * @param carrier
+	 *            Carrier to scatter
+	 * @param password
+	 *            Password the order of the pixels is derived from
+	 * @throws BinaryException
+	 *             If the carrier has no pixels or the order could not be derived
+	 */
+	public ScatteredCarrier(Carrier carrier, char[] password) throws BinaryException {
+		this(carrier, new KeyedPermutation(password, carrier.size() / CHANNELS));
+	}
+
+	/**
+	 * Constructs a Carrier scattering the pixels of another carrier by a permutation
+	 *
+	 * @param carrier
+	 *            Carrier to scatter
+	 * @param permutation
+	 *            Permutation of the pixels of the carrier
+	 * @throws BinaryException
+	 *             If the permutation is not the size of the carrier, or its units do not divide a pixel
+	 */
+	public ScatteredCarrier(Carrier carrier, KeyedPermutation permutation) throws BinaryException {
+		if (CHANNELS % carrier.unitSize() != 0)
+			throw new BinaryException("Cannot scatter a carrier with units of " + carrier.unitSize() + " bytes");
+		if (permutation.size() != carrier.size() / CHANNELS)
+			throw new BinaryException("Permutation of " + permutation.size() + " does not match " + carrier.size() / CHANNELS + " pixels");
+		this.carrier = carrier;
+		this.permutation = permutation;
+		this.packed = permutation.size() <= 0xFFFFFFFFL;
+	}
+
+	@Override
+	public long size() {
+		return this.permutation.size() * CHANNELS;
+	}
+
+	@Override
+	public int unitSize() {
+		// A unit never spans two pixels, so it is moved whole along with its pixel
+		return this.carrier.unitSize();
+	}
+
+	@Override
+	public byte get(long index) {
+		return this.carrier.get(this.carrierIndex(index));
+	}
+
+	@Override
+	public void set(long index, byte value) {
+		this.carrier.set(this.carrierIndex(index), value);
+		return;
+	}
+
+	/**
+	 * Gets the index in the scattered carrier of a carrier byte
+	 */
+	private long carrierIndex(long index) {
+		if (index < 0)
+			throw new IndexOutOfBoundsException("Carrier index out of range: " + index);
+		long pixel = index / CHANNELS;
+		long mapping = this.last;
+		if (this.packed && mapping >>> 32 == pixel)
+			return (mapping & 0xFFFFFFFFL) * CHANNELS + index % CHANNELS;
+		long target = this.permutation.permute(pixel);
+		if (this.packed)
+			this.last = pixel << 32 | target;
+		return target * CHANNELS + index % CHANNELS;
+	}
+}
@@ -0,0 +1,523 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Splits one payload across several carriers and puts it back together. Each carrier holds an ordinary message in row order, as written by
+ * {@link BinaryModifier#encode(InputStream, long, Carrier, int, int)}, whose contents are a shard header, a range of the payload and a CRC32 of both. The
+ * header records which payload the shard belongs to, its sequence number, the number of shards, the total length, and the offset and length of the range,
+ * so shards can be decoded in any order. Shards are streamed between the payload and the carriers without holding a range in memory.
+ */
+public class ShardedPayload {
+
+	/**
+	 * Marks the start of a shard header, "BMSH"
+	 */
+	private static final int MAGIC = 0x424D5348;
+
+	/**
+	 * Size of a shard header, magic, payload id, sequence number, shard count, total length, offset and length
+	 */
+	public static final int SHARD_HEADER_SIZE = 4 + 8 + 4 + 4 + 8 + 8 + 4;
+
+	/**
+	 * Size of the CRC32 following the data of a shard, which covers the shard header and the data
+	 */
+	public static final int CRC_SIZE = 4;
+
+	/**
+	 * Bits used in each channel of every carrier
+	 */
+	private int maxBits;
+
+	/**
+	 * Number of carriers encoded or decoded at once
+	 */
+	private int threads;
+
+	/**
+	 * Constructs a ShardedPayload with one worker per available processor
+	 *
+	 * @param maxBits
+	 *            Bits used in each channel of every carrier
+	 * @throws BinaryException
+	 *             If maxBits is out of range
+	 */
+	public ShardedPayload(int maxBits) throws BinaryException {
+		this(maxBits, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a ShardedPayload with a specified number of workers
+	 *
+	 * @param maxBits
+	 *            Bits used in each channel of every carrier
+	 * @param threads
+	 *            Number of carriers encoded or decoded at once
+	 * @throws BinaryException
+	 *             If maxBits is out of range or threads is less than 1
+	 */
+	public ShardedPayload(int maxBits, int threads) throws BinaryException {
+		new BinaryModifier(maxBits);
+		if (threads < 1)
+			throw new BinaryException("Must use at least 1 thread");
+		this.maxBits = maxBits;
+		this.threads = threads;
+	}
+
+	/**
+	 * Splits a payload file across carriers, filling each carrier in order before moving to the next. Carriers left over once the payload is placed are not
+	 * written.
+	 *
+	 * @param payload
+	 *            Name of the payload file
+	 * @param carriers
+	 *            Names of the carrier Bitmap Images
+	 * @param outputs
+	 *            Names to save each encoded carrier to, one per carrier
+	 * @return Number of shards written
+	 * @throws IOException
+	 * @throws FileException
+	 *             If a carrier is not a Bitmap Image
+	 * @throws BinaryException
+	 *             If the carriers together cannot hold the payload
+	 */
+	public int encode(final String payload, List<String> carriers, List<String> outputs) throws IOException, FileException, BinaryException {
+		if (carriers.size() != outputs.size())
+			throw new BinaryException("Need one output for each carrier");
+		final long total = new File(payload).length();
+
+		// Lay the payload out over the carriers from their headers alone
+		List<long[]> ranges = new ArrayList<long[]>();
+		long offset = 0;
+		for (int x = 0; x < carriers.size() && (offset < total || ranges.isEmpty()); x++) {
+			long room = new CapacityPlanner(carriers.get(x)).getCapacity(this.maxBits) - SHARD_HEADER_SIZE - CRC_SIZE;
+			if (room < 0)
+				continue;
+			long length = Math.min(room, total - offset);
+			ranges.add(new long[] { x, offset, length });
+			offset += length;
+		}
+		if (offset < total)
+			throw new BinaryException("Payload of " + total + " bytes does not fit in the " + carriers.size() + " carriers at maxBits " + this.maxBits);
+
+		final long id = new SecureRandom().nextLong();
+		final int count = ranges.size();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int x = 0; x < count; x++) {
+			final int sequence = x;
+			final long[] range = ranges.get(x);
+			final String carrier = carriers.get((int) range[0]);
+			final String output = outputs.get((int) range[0]);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					encodeShard(payload, carrier, output, id, sequence, count, total, range[1], (int) range[2]);
+					return null;
+				}
+			});
+		}
+		this.runAll(tasks);
+		return count;
+	}
+
+	/**
+	 * Reads shards from carriers in any order and writes the payload they hold. Each shard is checked against the others from its header and streamed into
+	 * the output at its offset as it is decoded, so no shard is held in memory. The output is deleted if any shard is bad or missing.
+	 *
+	 * @param carriers
+	 *            Names of the encoded carriers, every shard of one payload
+	 * @param output
+	 *            Name of the file to write the payload to
+	 * @return Length of the payload
+	 * @throws IOException
+	 * @throws FileException
+	 *             If a carrier is not a Bitmap Image
+	 * @throws BinaryException
+	 *             If a shard is corrupt, belongs to another payload, or shards are missing or repeated
+	 */
+	public long decode(List<String> carriers, String output) throws IOException, FileException, BinaryException {
+		if (carriers.isEmpty())
+			throw new BinaryException("Need at least one carrier");
+		RandomAccessFile file = new RandomAccessFile(output, "rw");
+		boolean complete = false;
+		try {
+			file.setLength(0);
+			final Assembly assembly = new Assembly(file.getChannel());
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (final String carrier : carriers) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						readShard(carrier, assembly);
+						return null;
+					}
+				});
+			}
+			this.runAll(tasks);
+			long total = assembly.finish(carriers.size());
+			complete = true;
+			return total;
+		} finally {
+			file.close();
+			if (!complete)
+				new File(output).delete();
+		}
+	}
+
+	/**
+	 * Streams one range of the payload into a carrier and saves it
+	 */
+	private void encodeShard(String payload, String carrier, String output, long id, int sequence, int count, long total, long offset, int length)
+			throws IOException, FileException, BinaryException {
+		ByteBuffer header = ByteBuffer.allocate(SHARD_HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putLong(id);
+		header.putInt(sequence);
+		header.putInt(count);
+		header.putLong(total);
+		header.putLong(offset);
+		header.putInt(length);
+
+		BMPLoader loader = new BMPLoader();
+		loader.setFile(carrier);
+		PixelChannelView pixels = rowView(loader);
+		FileInputStream data = new FileInputStream(payload);
+		InputStream in = new ShardInputStream(header.array(), data, length);
+		try {
+			data.getChannel().position(offset);
+			new BinaryModifier(this.maxBits).encode(in, SHARD_HEADER_SIZE + length + CRC_SIZE, pixels, BinaryModifier.CODEC_NONE,
+					BMPLoader.PIXEL_ORDER_ROWS);
+		} finally {
+			in.close();
+		}
+		pixels.flush();
+		loader.saveToFile(output);
+		return;
+	}
+
+	/**
+	 * Decodes the shard held by a carrier into the output, checking its header against the other shards and its CRC32
+	 */
+	private void readShard(String carrier, Assembly assembly) throws IOException, FileException, BinaryException {
+		BMPLoader loader = new BMPLoader();
+		loader.setFile(carrier);
+		ShardOutputStream out = new ShardOutputStream(carrier, assembly);
+		try {
+			new BinaryModifier(this.maxBits).decode(rowView(loader), out);
+		} catch (ShardException e) {
+			throw (BinaryException) e.getCause();
+		}
+		out.check();
+		return;
+	}
+
+	/**
+	 * Views the pixels of a loaded carrier in row order, the order every shard is written in
+	 */
+	private static PixelChannelView rowView(BMPLoader loader) {
+		try {
+			loader.setPixelOrder(BMPLoader.PIXEL_ORDER_ROWS);
+			return new PixelChannelView(loader);
+		} catch (PixelException | ObjectException impossible) {
+			// The pixel order is valid and setFile has loaded the image
+			throw new IllegalStateException(impossible);
+		}
+	}
+
+	/**
+	 * Runs tasks on a pool of workers and waits for all of them, rethrowing the first failure
+	 */
+	private void runAll(List<? extends Callable<Void>> tasks) throws IOException, FileException, BinaryException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(this.threads, tasks.size())));
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof BinaryException)
+				throw (BinaryException) cause;
+			if (cause instanceof FileException)
+				throw (FileException) cause;
+			throw new IOException(cause);
+		} finally {
+			pool.shutdown();
+		}
+		return;
+	}
+
+	/**
+	 * Checks the headers of the shards of one payload as they are decoded and writes their data into the output. The first shard header seen describes the
+	 * payload, every other shard must agree with it.
+	 */
+	private static class Assembly {
+
+		private final FileChannel output;
+		private long id;
+		private int count;
+		private long total;
+		private long[] offsets;
+		private int[] lengths;
+
+		Assembly(FileChannel output) {
+			this.output = output;
+		}
+
+		/**
+		 * Records the header of a shard before its data is written
+		 */
+		synchronized void start(String carrier, ByteBuffer header) throws BinaryException {
+			if (this.offsets == null) {
+				this.id = header.getLong(4);
+				this.count = header.getInt(16);
+				this.total = header.getLong(20);
+				if (this.count < 1 || this.total < 0)
+					throw new BinaryException(carrier + " holds a malformed shard header");
+				this.offsets = new long[this.count];
+				this.lengths = new int[this.count];
+				Arrays.fill(this.lengths, -1);
+			}
+			int sequence = header.getInt(12);
+			if (header.getLong(4) != this.id || header.getInt(16) != this.count || header.getLong(20) != this.total)
+				throw new BinaryException(carrier + " holds a shard of a different payload");
+			if (sequence < 0 || sequence >= this.count || this.lengths[sequence] >= 0)
+				throw new BinaryException(carrier + " holds a repeated or invalid shard " + sequence);
+			long offset = header.getLong(28);
+			int length = header.getInt(36);
+			if (offset < 0 || length < 0 || offset + length > this.total)
+				throw new BinaryException("Shard " + sequence + " runs past the end of the payload");
+			this.offsets[sequence] = offset;
+			this.lengths[sequence] = length;
+			return;
+		}
+
+		/**
+		 * Writes shard data at a position of the output, positional writes to a channel being safe from several threads
+		 */
+		void write(byte[] b, int off, int len, long position) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				position += this.output.write(buffer, position);
+			}
+			return;
+		}
+
+		/**
+		 * Checks that every shard arrived and that the shards cover the payload end to end
+		 *
+		 * @return Length of the payload
+		 */
+		synchronized long finish(int shards) throws IOException, BinaryException {
+			if (shards != this.count)
+				throw new BinaryException("Have " + shards + " of " + this.count + " shards");
+			long expected = 0;
+			for (int x = 0; x < this.count; x++) {
+				if (this.offsets[x] != expected)
+					throw new BinaryException("Shard " + x + " starts at " + this.offsets[x] + " instead of " + expected);
+				expected += this.lengths[x];
+			}
+			if (expected != this.total)
+				throw new BinaryException("Shards hold " + expected + " of " + this.total + " payload bytes");
+			this.output.truncate(this.total);
+			return this.total;
+		}
+	}
+
+	/**
+	 * Serves a shard header, a range of a payload stream and a CRC32 of both, computing the CRC32 as the range is read
+	 */
+	private static class ShardInputStream extends InputStream {
+
+		private final byte[] header;
+		private final InputStream data;
+		private final CRC32 crc = new CRC32();
+		private long remaining;
+		private byte[] trailer;
+		private int position;
+
+		ShardInputStream(byte[] header, InputStream data, long length) {
+			this.header = header;
+			this.data = data;
+			this.remaining = length;
+			this.crc.update(header, 0, header.length);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (this.position < this.header.length) {
+				int n = Math.min(len, this.header.length - this.position);
+				System.arraycopy(this.header, this.position, b, off, n);
+				this.position += n;
+				return n;
+			}
+			if (this.remaining > 0) {
+				int n = this.data.read(b, off, (int) Math.min(len, this.remaining));
+				if (n < 0)
+					throw new EOFException("Payload ended " + this.remaining + " bytes early");
+				this.crc.update(b, off, n);
+				this.remaining -= n;
+				return n;
+			}
+			if (this.trailer == null) {
+				this.trailer = ByteBuffer.allocate(CRC_SIZE).putInt((int) this.crc.getValue()).array();
+				this.position = 0;
+			}
+			if (this.position >= this.trailer.length)
+				return -1;
+			int n = Math.min(len, this.trailer.length - this.position);
+			System.arraycopy(this.trailer, this.position, b, off, n);
+			this.position += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.data.close();
+			return;
+		}
+	}
+
+	/**
+	 * Takes the decoded message of one shard, hands its header to the assembly, writes its data at its offset and keeps the CRC32 that follows
+	 */
+	private static class ShardOutputStream extends OutputStream {
+
+		private final String carrier;
+		private final Assembly assembly;
+		private final byte[] header = new byte[SHARD_HEADER_SIZE];
+		private final byte[] trailer = new byte[CRC_SIZE];
+		private final CRC32 crc = new CRC32();
+		private int headerRead;
+		private long offset;
+		private int length;
+		private long dataRead;
+		private int trailerRead;
+
+		ShardOutputStream(String carrier, Assembly assembly) {
+			this.carrier = carrier;
+			this.assembly = assembly;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+			return;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n;
+				if (this.headerRead < SHARD_HEADER_SIZE) {
+					n = Math.min(len, SHARD_HEADER_SIZE - this.headerRead);
+					System.arraycopy(b, off, this.header, this.headerRead, n);
+					this.crc.update(b, off, n);
+					this.headerRead += n;
+					if (this.headerRead == SHARD_HEADER_SIZE)
+						this.start();
+				} else if (this.dataRead < this.length) {
+					n = (int) Math.min(len, this.length - this.dataRead);
+					this.assembly.write(b, off, n, this.offset + this.dataRead);
+					this.crc.update(b, off, n);
+					this.dataRead += n;
+				} else if (this.trailerRead < CRC_SIZE) {
+					n = Math.min(len, CRC_SIZE - this.trailerRead);
+					System.arraycopy(b, off, this.trailer, this.trailerRead, n);
+					this.trailerRead += n;
+				} else {
+					throw new ShardException(new BinaryException(this.carrier + " holds a corrupt shard"));
+				}
+				off += n;
+				len -= n;
+			}
+			return;
+		}
+
+		/**
+		 * Checks the magic of a complete header and registers it with the assembly
+		 */
+		private void start() throws ShardException {
+			ByteBuffer buffer = ByteBuffer.wrap(this.header);
+			try {
+				if (buffer.getInt(0) != MAGIC)
+					throw new BinaryException(this.carrier + " does not hold a shard");
+				this.assembly.start(this.carrier, buffer);
+			} catch (BinaryException e) {
+				throw new ShardException(e);
+			}
+			this.offset = buffer.getLong(28);
+			this.length = buffer.getInt(36);
+			return;
+		}
+
+		/**
+		 * Checks that the whole shard arrived and its CRC32 matches
+		 */
+		void check() throws BinaryException {
+			if (this.headerRead < SHARD_HEADER_SIZE)
+				throw new BinaryException(this.carrier + " does not hold a shard");
+			if (this.dataRead < this.length || this.trailerRead < CRC_SIZE || ByteBuffer.wrap(this.trailer).getInt() != (int) this.crc.getValue())
+				throw new BinaryException(this.carrier + " holds a corrupt shard");
+			return;
+		}
+	}
+
+	/**
+	 * Carries a BinaryException out of a ShardOutputStream, whose methods may only throw IOException
+	 */
+	private static class ShardException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		ShardException(BinaryException cause) {
+			super(cause);
+		}
+	}
+}
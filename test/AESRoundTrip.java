@@ -0,0 +1,82 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips streams through AES-GCM with a buffer size much smaller than the stream, so decryption runs many updates while the cipher holds back its
+ * input until the final block. Exits with status 1 if any case fails.
+ *
+ * Build and run from the repository root with:
+ *
+ * <pre>
+ * javac -d out src/*.java test/*.java
+ * java -cp out AESRoundTrip
+ * </pre>
+ */
+public class AESRoundTrip {
+
+	/**
+	 * Buffer sizes used by {@link AES}, each smaller than most of the streams
+	 */
+	private static final int[] BUFFER_SIZES = { 16, 1000, 4096 };
+
+	/**
+	 * Lengths of the streams, including empty and not a multiple of the block size
+	 */
+	private static final int[] LENGTHS = { 0, 1, 4095, 4096, 100003, 1 << 20 };
+
+	public static void main(String args[]) throws Exception {
+		char[] password = "round trip".toCharArray();
+		int failures = 0;
+		for (int bufferSize : BUFFER_SIZES) {
+			AES.setBufferSize(bufferSize);
+			for (int length : LENGTHS) {
+				byte[] data = new byte[length];
+				new Random(length).nextBytes(data);
+
+				ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+				AES.encryptGCM(128, password, new ByteArrayInputStream(data), encrypted);
+				ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+				AES.decrypt(password, new ByteArrayInputStream(encrypted.toByteArray()), decrypted);
+				boolean passed = Arrays.equals(data, decrypted.toByteArray());
+
+				// A flipped bit in the last ciphertext byte must fail authentication
+				byte[] tampered = encrypted.toByteArray();
+				tampered[tampered.length - 1] ^= 1;
+				try {
+					AES.decrypt(password, new ByteArrayInputStream(tampered), new ByteArrayOutputStream());
+					passed = false;
+				} catch (AES.InvalidAESStreamException | AES.InvalidPasswordException e) {
+					// Expected
+				}
+
+				System.out.println(String.format("%-4s buffer %5d length %8d", passed ? "ok" : "FAIL", bufferSize, length));
+				if (!passed)
+					failures++;
+			}
+		}
+		if (failures > 0) {
+			System.out.println(failures + " cases failed");
+			System.exit(1);
+		}
+		return;
+	}
+}
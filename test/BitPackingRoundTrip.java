@@ -0,0 +1,131 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips messages through the bit packing of {@link BinaryModifier} for every number of bits per carrier byte. Messages are encoded from the start of
+ * the carrier and behind a length header, which leaves the message on a bit offset inside a carrier byte for most bit counts. Every case also checks that
+ * the bits above maxBits and the carrier bytes past the message are left alone. Exits with status 1 if any case fails.
+ *
+ * Build and run from the repository root with:
+ *
+ * <pre>
+ * javac -d out src/*.java test/*.java
+ * java -cp out BitPackingRoundTrip
+ * </pre>
+ */
+public class BitPackingRoundTrip {
+
+	/**
+	 * Lengths of the messages, including empty and lengths that end part way through a carrier byte
+	 */
+	private static final int[] LENGTHS = { 0, 1, 2, 3, 7, 100, 4099 };
+
+	/**
+	 * Carrier bytes left after the message, which must not change
+	 */
+	private static final int SLACK = 17;
+
+	public static void main(String args[]) throws Exception {
+		int failures = 0;
+		for (int maxBits = 1; maxBits <= 8; maxBits++) {
+			BinaryModifier modifier = new BinaryModifier(maxBits);
+			for (int length : LENGTHS) {
+				byte[] message = new byte[length];
+				new Random(length).nextBytes(message);
+
+				// Message from the start of the carrier
+				byte[] original = carrier(length, maxBits);
+				byte[] data = modifier.encodeMessage(original.clone(), message);
+				boolean passed = Arrays.equals(message, Arrays.copyOf(modifier.decodeMessage(data), length));
+				passed &= untouched(original, data, length, maxBits);
+
+				// Message behind the 4-byte header, starting 32 bits into the carrier
+				original = carrier(4 + length, maxBits);
+				ByteArrayCarrier carrier = new ByteArrayCarrier(original.clone());
+				modifier.encode(new ByteArrayInputStream(message), length, carrier);
+				passed &= Arrays.equals(message, modifier.decodeData(carrier));
+				passed &= untouched(original, carrier.getData(), 4 + length, maxBits);
+
+				System.out.println(String.format("%-4s maxBits %d length %5d", passed ? "ok" : "FAIL", maxBits, length));
+				if (!passed)
+					failures++;
+			}
+		}
+		if (failures > 0) {
+			System.out.println(failures + " cases failed");
+			System.exit(1);
+		}
+		return;
+	}
+
+	/**
+	 * Makes a random carrier just large enough for a message plus some slack
+	 *
+	 * @param length
+	 *            Message bytes to fit
+	 * @param maxBits
+	 *            Bits used per carrier byte
+	 * @return Carrier bytes
+	 */
+	private static byte[] carrier(int length, int maxBits) {
+		byte[] data = new byte[used(length, maxBits) + SLACK];
+		new Random(31 * length + maxBits).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Gets the number of carrier bytes a message touches
+	 *
+	 * @param length
+	 *            Message bytes
+	 * @param maxBits
+	 *            Bits used per carrier byte
+	 * @return Carrier bytes holding at least one bit of the message
+	 */
+	private static int used(int length, int maxBits) {
+		return (length * 8 + maxBits - 1) / maxBits;
+	}
+
+	/**
+	 * Checks that encoding changed only the low maxBits bits of the carrier bytes holding the message
+	 *
+	 * @param original
+	 *            Carrier before encoding
+	 * @param data
+	 *            Carrier after encoding
+	 * @param length
+	 *            Message bytes encoded
+	 * @param maxBits
+	 *            Bits used per carrier byte
+	 * @return True if nothing else changed
+	 */
+	private static boolean untouched(byte[] original, byte[] data, int length, int maxBits) {
+		int used = used(length, maxBits);
+		int high = 0xFF & ~((1 << maxBits) - 1);
+		for (int x = 0; x < data.length; x++) {
+			if (x >= used && data[x] != original[x])
+				return false;
+			if ((data[x] & high) != (original[x] & high))
+				return false;
+		}
+		return true;
+	}
+}
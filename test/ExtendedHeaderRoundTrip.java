@@ -0,0 +1,129 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips payloads through every codec and pixel order of {@link BinaryModifier}, checking the header bits written to the carrier and that
+ * {@link BinaryModifier#readPixelOrder(Carrier)} reads the order back. An uncompressed payload in column order keeps the plain 4-byte length header, every
+ * other combination writes the 5-byte extended header. Exits with status 1 if any case fails.
+ *
+ * Build and run from the repository root with:
+ *
+ * <pre>
+ * javac -d out src/*.java test/*.java
+ * java -cp out ExtendedHeaderRoundTrip
+ * </pre>
+ */
+public class ExtendedHeaderRoundTrip {
+
+	/**
+	 * Bits used per carrier byte, the header ending on, part way through and well inside a carrier byte
+	 */
+	private static final int[] MAX_BITS = { 1, 3, 8 };
+
+	/**
+	 * Lengths of the payloads, including empty
+	 */
+	private static final int[] LENGTHS = { 0, 1, 5000 };
+
+	private static final int[] CODECS = { BinaryModifier.CODEC_NONE, BinaryModifier.CODEC_DEFLATE, BinaryModifier.CODEC_LZ };
+
+	private static final int[] PIXEL_ORDERS = { BMPLoader.PIXEL_ORDER_COLUMNS, BMPLoader.PIXEL_ORDER_ROWS };
+
+	public static void main(String args[]) throws Exception {
+		int failures = 0;
+		for (int maxBits : MAX_BITS) {
+			BinaryModifier modifier = new BinaryModifier(maxBits);
+			for (int length : LENGTHS) {
+				byte[] payload = payload(length);
+				for (int codec : CODECS) {
+					for (int pixelOrder : PIXEL_ORDERS) {
+						// Twice the room the payload needs, compressing a short payload can make it larger
+						byte[] data = new byte[(2 * length + 64) * 8 / maxBits];
+						new Random(length + maxBits).nextBytes(data);
+						ByteArrayCarrier carrier = new ByteArrayCarrier(data);
+						modifier.encode(new ByteArrayInputStream(payload), length, carrier, codec, pixelOrder);
+
+						boolean passed = checkHeader(modifier.decodeMessage(data), length, codec, pixelOrder);
+						passed &= modifier.readPixelOrder(carrier) == pixelOrder;
+						passed &= Arrays.equals(payload, modifier.decodeData(carrier));
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						passed &= modifier.decode(carrier, out) == length;
+						passed &= Arrays.equals(payload, out.toByteArray());
+
+						System.out.println(String.format("%-4s maxBits %d length %4d codec %d order %d", passed ? "ok" : "FAIL", maxBits, length, codec,
+								pixelOrder));
+						if (!passed)
+							failures++;
+					}
+				}
+			}
+		}
+		if (failures > 0) {
+			System.out.println(failures + " cases failed");
+			System.exit(1);
+		}
+		return;
+	}
+
+	/**
+	 * Makes a payload of repeated text with some random bytes, so it compresses but not to nothing
+	 *
+	 * @param length
+	 *            Payload bytes
+	 * @return Payload
+	 */
+	private static byte[] payload(int length) {
+		byte[] text = "Java Bitmap Message ".getBytes();
+		byte[] payload = new byte[length];
+		Random random = new Random(length);
+		for (int x = 0; x < length; x++)
+			payload[x] = x % 7 == 0 ? (byte) random.nextInt() : text[x % text.length];
+		return payload;
+	}
+
+	/**
+	 * Checks the header at the start of the decoded message bytes
+	 *
+	 * @param message
+	 *            Message bytes decoded from the whole carrier
+	 * @param length
+	 *            Length of the payload before compression
+	 * @param codec
+	 *            Codec the payload was encoded with
+	 * @param pixelOrder
+	 *            Pixel order the payload was encoded with
+	 * @return True if the header matches
+	 */
+	private static boolean checkHeader(byte[] message, int length, int codec, int pixelOrder) {
+		int word = BinaryModifier.getHeader(message);
+		if (codec == BinaryModifier.CODEC_NONE && pixelOrder == BMPLoader.PIXEL_ORDER_COLUMNS)
+			return word == length;
+		if ((word & 0x80000000) == 0)
+			return false;
+		if (((word & 0x40000000) != 0) != (pixelOrder == BMPLoader.PIXEL_ORDER_ROWS))
+			return false;
+		if ((message[4] & 0x0F) != codec)
+			return false;
+		// Only an uncompressed payload is stored at its own length
+		return codec != BinaryModifier.CODEC_NONE || (word & 0x3FFFFFFF) == length;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the parallel encoding and decoding of {@link BinaryModifier} against the serial path. The parallel threshold is set to a single byte so the work
+ * is split at every stripe boundary, and the message lengths sit on and either side of multiples of the stripe unit, for carriers with units of one byte
+ * and of a three channel pixel. Exits with status 1 if any case fails.
+ *
+ * Build and run from the repository root with:
+ *
+ * <pre>
+ * javac -d out src/*.java test/*.java
+ * java -cp out ParallelStripeRoundTrip
+ * </pre>
+ */
+public class ParallelStripeRoundTrip {
+
+	/**
+	 * Carrier bytes per unit, a plain byte array and a pixel of three channels
+	 */
+	private static final int[] UNIT_SIZES = { 1, 3 };
+
+	/**
+	 * Multiples of the stripe unit the message lengths are placed around
+	 */
+	private static final int[] STRIPES = { 1, 2, 3, 7, 1000 };
+
+	public static void main(String args[]) throws Exception {
+		int failures = 0;
+		for (int maxBits = 1; maxBits <= 8; maxBits++) {
+			BinaryModifier modifier = new BinaryModifier(maxBits);
+			modifier.setParallelThreshold(1);
+			for (int unitSize : UNIT_SIZES) {
+				int stripe = stripeUnit(maxBits, unitSize);
+				for (int stripes : STRIPES) {
+					for (int length = stripes * stripe - 1; length <= stripes * stripe + 1; length++) {
+						byte[] message = new byte[length];
+						new Random(length).nextBytes(message);
+						// Room for the header and a unit of slack
+						byte[] original = new byte[(4 + length) * 8 / maxBits + 2 * unitSize];
+						original = Arrays.copyOf(original, original.length / unitSize * unitSize);
+						new Random(31 * length + maxBits).nextBytes(original);
+
+						// Message from the start of the carrier
+						UnitCarrier serial = new UnitCarrier(original.clone(), unitSize);
+						UnitCarrier parallel = new UnitCarrier(original.clone(), unitSize);
+						modifier.encodeMessage(serial, message);
+						modifier.encodeMessageParallel(parallel, message);
+						boolean passed = Arrays.equals(serial.data, parallel.data);
+
+						// Message behind the 4-byte header, so the stripes start part way through the message
+						serial = new UnitCarrier(original.clone(), unitSize);
+						parallel = new UnitCarrier(original.clone(), unitSize);
+						modifier.encodeMessage(serial, BinaryModifier.embedHeader(message));
+						modifier.encode(new ByteArrayInputStream(message), length, parallel);
+						passed &= Arrays.equals(serial.data, parallel.data);
+						passed &= Arrays.equals(message, modifier.decodeData(parallel));
+						passed &= Arrays.equals(message, modifier.decodeDataParallel(parallel));
+
+						System.out.println(String.format("%-4s maxBits %d unit %d length %6d", passed ? "ok" : "FAIL", maxBits, unitSize, length));
+						if (!passed)
+							failures++;
+					}
+				}
+			}
+		}
+		if (failures > 0) {
+			System.out.println(failures + " cases failed");
+			System.exit(1);
+		}
+		return;
+	}
+
+	/**
+	 * Gets the message bytes per stripe unit the same way {@link BinaryModifier} splits its work, the smallest number of message bytes filling a whole
+	 * number of carrier units
+	 *
+	 * @param maxBits
+	 *            Bits used per carrier byte
+	 * @param unitSize
+	 *            Carrier bytes per unit
+	 * @return Message bytes per stripe unit
+	 */
+	private static int stripeUnit(int maxBits, int unitSize) {
+		int bytes = unitSize;
+		while (bytes * maxBits % 8 != 0)
+			bytes += unitSize;
+		return bytes * maxBits / 8;
+	}
+
+	/**
+	 * Carrier over a byte array reporting a set unit size, so stripes must not split groups of bytes the way they must not split the channels of a pixel
+	 */
+	private static class UnitCarrier implements Carrier {
+
+		private final byte[] data;
+		private final int unitSize;
+
+		UnitCarrier(byte[] data, int unitSize) {
+			this.data = data;
+			this.unitSize = unitSize;
+		}
+
+		@Override
+		public long size() {
+			return this.data.length;
+		}
+
+		@Override
+		public int unitSize() {
+			return this.unitSize;
+		}
+
+		@Override
+		public byte get(long index) {
+			return this.data[(int) index];
+		}
+
+		@Override
+		public void set(long index, byte value) {
+			this.data[(int) index] = value;
+		}
+	}
+}
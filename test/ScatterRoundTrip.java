@@ -0,0 +1,165 @@
+/*
+This file is part of Java Bitmap Message.
+
+Java Bitmap Message is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Java Bitmap Message is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Java Bitmap Message.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Checks that {@link KeyedPermutation} moves every value of small ranges to a distinct value in the range, then round trips messages through a
+ * {@link ScatteredCarrier} with the serial and parallel decoders and checks a wrong password does not read the message back. Exits with status 1 if any case
+ * fails.
+ *
+ * Build and run from the repository root with:
+ *
+ * <pre>
+ * javac -d out src/*.java test/*.java
+ * java -cp out ScatterRoundTrip
+ * </pre>
+ */
+public class ScatterRoundTrip {
+
+	/**
+	 * Every size up to this is checked, which covers several powers of two for the Feistel network and cycle walking
+	 */
+	private static final int SMALL_SIZES = 300;
+
+	/**
+	 * Larger sizes checked, just past powers of two where most values need cycle walking
+	 */
+	private static final int[] LARGE_SIZES = { 1025, 4097, 65537 };
+
+	/**
+	 * Bytes of key material, 8 for each Feistel round
+	 */
+	private static final int KEY_SIZE = 48;
+
+	/**
+	 * Pixels in the carriers the messages are scattered over
+	 */
+	private static final int PIXELS = 20000;
+
+	public static void main(String args[]) throws Exception {
+		int failures = 0;
+		Random random = new Random(1);
+		int[] sizes = Arrays.copyOf(LARGE_SIZES, SMALL_SIZES + LARGE_SIZES.length);
+		for (int x = 0; x < SMALL_SIZES; x++)
+			sizes[LARGE_SIZES.length + x] = x + 1;
+		for (int size : sizes) {
+			byte[] keys = new byte[KEY_SIZE];
+			random.nextBytes(keys);
+			boolean passed = isPermutation(new KeyedPermutation(keys, size));
+			System.out.println(String.format("%-4s permutation of %d", passed ? "ok" : "FAIL", size));
+			if (!passed)
+				failures++;
+		}
+
+		byte[] message = new byte[4000];
+		random.nextBytes(message);
+		for (int maxBits = 1; maxBits <= 8; maxBits++) {
+			BinaryModifier modifier = new BinaryModifier(maxBits);
+			modifier.setParallelThreshold(64);
+			byte[] original = new byte[PIXELS * 3];
+			random.nextBytes(original);
+			byte[] keys = new byte[KEY_SIZE];
+			random.nextBytes(keys);
+			ByteArrayCarrier carrier = new ByteArrayCarrier(original.clone());
+			ScatteredCarrier scattered = new ScatteredCarrier(carrier, new KeyedPermutation(keys, PIXELS));
+			modifier.encode(new ByteArrayInputStream(message), message.length, scattered);
+
+			boolean passed = Arrays.equals(message, modifier.decodeData(new ScatteredCarrier(carrier, new KeyedPermutation(keys, PIXELS))));
+			passed &= Arrays.equals(message, modifier.decodeDataParallel(new ScatteredCarrier(carrier, new KeyedPermutation(keys, PIXELS))));
+			// Without scattering the message is not at the start of the carrier
+			passed &= !Arrays.equals(message, decodeOrNull(modifier, carrier));
+			passed &= lastChanged(original, carrier.getData()) > carrier.getData().length / 2;
+
+			System.out.println(String.format("%-4s scattered maxBits %d", passed ? "ok" : "FAIL", maxBits));
+			if (!passed)
+				failures++;
+		}
+
+		// The password path, derived with PBKDF2 so only run once
+		BinaryModifier modifier = new BinaryModifier(2);
+		ByteArrayCarrier carrier = new ByteArrayCarrier(new byte[PIXELS * 3]);
+		modifier.encode(new ByteArrayInputStream(message), message.length, new ScatteredCarrier(carrier, "round trip".toCharArray()));
+		boolean passed = Arrays.equals(message, modifier.decodeData(new ScatteredCarrier(carrier, "round trip".toCharArray())));
+		passed &= !Arrays.equals(message, decodeOrNull(modifier, new ScatteredCarrier(carrier, "wrong password".toCharArray())));
+		System.out.println(String.format("%-4s scattered with a password", passed ? "ok" : "FAIL"));
+		if (!passed)
+			failures++;
+
+		if (failures > 0) {
+			System.out.println(failures + " cases failed");
+			System.exit(1);
+		}
+		return;
+	}
+
+	/**
+	 * Checks that a permutation moves every value in its range to a distinct value in its range
+	 *
+	 * @param permutation
+	 *            Permutation to check
+	 * @return True if it is a bijection of 0 through size - 1
+	 */
+	private static boolean isPermutation(KeyedPermutation permutation) {
+		int size = (int) permutation.size();
+		BitSet seen = new BitSet(size);
+		for (int x = 0; x < size; x++) {
+			long value = permutation.permute(x);
+			if (value < 0 || value >= size || seen.get((int) value))
+				return false;
+			seen.set((int) value);
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes a message, a carrier that holds no message may fail to decode
+	 *
+	 * @param modifier
+	 *            Modifier to decode with
+	 * @param carrier
+	 *            Carrier to decode
+	 * @return Message data, null if the header does not fit the carrier
+	 */
+	private static byte[] decodeOrNull(BinaryModifier modifier, Carrier carrier) {
+		try {
+			return modifier.decodeData(carrier);
+		} catch (BinaryException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the index of the last carrier byte that changed
+	 *
+	 * @param original
+	 *            Carrier before encoding
+	 * @param data
+	 *            Carrier after encoding
+	 * @return Index, -1 if nothing changed
+	 */
+	private static int lastChanged(byte[] original, byte[] data) {
+		for (int x = data.length - 1; x >= 0; x--) {
+			if (data[x] != original[x])
+				return x;
+		}
+		return -1;
+	}
+}